@@ -41,15 +41,14 @@
 package fish.payara.extras.upgrade;
 
 import com.sun.appserv.server.util.Version;
+import com.sun.enterprise.admin.cli.CLICommand;
 import com.sun.enterprise.admin.servermgmt.cli.LocalDomainCommand;
 import com.sun.enterprise.config.serverbeans.Domain;
-import com.sun.enterprise.config.serverbeans.Node;
-import com.sun.enterprise.config.serverbeans.SshAuth;
-import com.sun.enterprise.config.serverbeans.SshConnector;
 import com.sun.enterprise.module.ModulesRegistry;
 import com.sun.enterprise.module.single.StaticModulesRegistry;
 import com.sun.enterprise.universal.process.ProcessManager;
 import com.sun.enterprise.universal.process.ProcessManagerException;
+import com.sun.enterprise.util.StringUtils;
 import com.sun.enterprise.util.SystemPropertyConstants;
 import org.glassfish.api.admin.CommandException;
 import org.glassfish.api.admin.CommandValidationException;
@@ -66,9 +65,12 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -78,10 +80,21 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
 
 import static com.sun.enterprise.util.io.DomainDirs.getDefaultDomainsDir;
 
@@ -95,11 +108,29 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
 
     protected static final int DEFAULT_TIMEOUT_MSEC = 300000;
 
+    // How many SSH nodes are reinstalled at once, overall and on any one host
+    private static final int NODE_REINSTALL_THREADS = Math.max(1,
+            Integer.getInteger("fish.payara.upgrade.nodes.threads", 8));
+    private static final int NODE_REINSTALLS_PER_HOST = Math.max(1,
+            Integer.getInteger("fish.payara.upgrade.nodes.perhost", 1));
+
+    // How many domains are backed up or restored at once
+    static final int DOMAIN_COMMAND_THREADS = Math.max(1, Integer.getInteger(
+            "fish.payara.upgrade.domains.threads", Math.min(4, Runtime.getRuntime().availableProcessors())));
+
     protected String glassfishDir;
 
     @Inject
     protected ServiceLocator habitat;
 
+    // Created on first use by reinstallNodes, and closed once it's done
+    private URLClassLoader modulesClassLoader;
+    private ModulesRegistry modulesRegistry;
+    private ServiceLocator modulesServiceLocator;
+
+    // Created on first use by reinstallNodes and dropped once it's done, so the nodes share the local checksums
+    private NodeSynchronizer nodeSynchronizer;
+
     // Folders and files that are always moved in the upgrade process
     // This will be converted to use Windows file separators if required during validate()
     private static final String[] CONSTANTMOVEFOLDERS = {"common",
@@ -122,6 +153,13 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
 
     protected boolean isWebDistributionUpgrade = false;
 
+    // Trees being deleted are moved here first, so they're out of the way straight away
+    private static final String TRASH_DIRECTORY = ".upgrade-trash";
+
+    private TreeDeleter treeDeleter;
+
+    private ScratchArea scratchArea;
+
     @Override
     protected void validate() throws CommandException {
         // Perform usual validation; we don't want to skip it, we just want to add to it. Requires modification of the initDomain method
@@ -246,36 +284,29 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
     }
 
     protected void reinstallNodes() throws IOException, CommandException, ConfigurationException {
+        try {
+            reinstallDomainNodes();
+        } finally {
+            closeModulesServiceLocator();
+            nodeSynchronizer = null;
+        }
+    }
+
+    private void reinstallDomainNodes() throws IOException, CommandException, ConfigurationException {
+        OsgiCacheInvalidator osgiCacheInvalidator = createOsgiCacheInvalidator();
         File[] domaindirs = getDomainsDir().listFiles(File::isDirectory);
         for (File domaindir : domaindirs) {
-            File domainXMLFile = Paths.get(domaindir.getAbsolutePath(), "config", "domain.xml").toFile();
-
-            // Don't use default habitat - since we're a CLI command it doesn't have a view of all the services
-            // added via the modules directory
-            ServiceLocator serviceLocator = createServiceLocator();
-            ConfigParser parser = new ConfigParser(serviceLocator);
-            try {
-                parser.logUnrecognisedElements(false);
-            } catch (NoSuchMethodError noSuchMethodError) {
-                logger.log(Level.FINE,
-                        "Using a version of ConfigParser that does not support disabling log messages via method",
-                        noSuchMethodError);
-            }
-
-            URL domainURL = domainXMLFile.toURI().toURL();
-            DomDocument doc = parser.parse(domainURL);
+            List<DomainNode> nodes = readNodes(domaindir);
             logger.log(Level.INFO, "Reinstalling nodes for domain " + domaindir.getName());
             boolean throwException = false;
             List<String> failingNodes = new ArrayList<>();
             boolean foundNode = false;
-            for (Node node : doc.getRoot().createProxy(Domain.class).getNodes().getNode()) {
+            List<DomainNode> sshNodes = new ArrayList<>();
+            for (DomainNode node : nodes) {
                 if (node.getType().equals("SSH")) {
+                    // Reinstalled concurrently once all nodes have been looked through
                     foundNode = true;
-                    boolean commandSuccess = reinstallSSHNode(node);
-                    if (!commandSuccess) {
-                        throwException = true;
-                        failingNodes.add(node.getName());
-                    }
+                    sshNodes.add(node);
                 } else if (node.getType().equals("CONFIG") && node.isLocal()) {
                     // For local instances, remove osgi-cache content
                     foundNode = true;
@@ -291,9 +322,7 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
                                 .map(p -> p.resolve("osgi-cache")) // interested in osgi-cache subdirectories
                                 .filter(p -> p.toFile().exists()) // only if it exists
                                 .peek(p -> logger.fine(String.format("Deleting osgi-cache for local instance, path %s", p)))
-                                .flatMap(p -> Stream.of(p.toFile().listFiles())) // process subdirectories, not osgi-cache itself
-                                .map(f -> f.toPath())
-                                .map(p -> deleteDirectoryRecursively(p)) // delete all the directories
+                                .flatMap(p -> clearOsgiCache(p, osgiCacheInvalidator))
                                 .filter(e -> e != null)
                                 .collect(Collectors.toList()); // collect all exceptions
                         if (!exceptions.isEmpty()) {
@@ -312,6 +341,15 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
                 }
             }
 
+            if (!sshNodes.isEmpty()) {
+                cleanInstallForNodes();
+            }
+            List<String> failingSSHNodes = reinstallSSHNodes(sshNodes);
+            if (!failingSSHNodes.isEmpty()) {
+                throwException = true;
+                failingNodes.addAll(failingSSHNodes);
+            }
+
             if (!foundNode) {
                 logger.log(Level.FINE, "No nodes found for domain {0}", domaindir.getName());
             }
@@ -322,10 +360,113 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
         }
     }
 
+    /**
+     * SSH nodes are installed from a copy of the install directory, so the temporary files and trash of the command,
+     * which are kept under it, are removed first rather than shipped to every node. The trash can't be left to the
+     * background cleanup here, as it would still be there while the install is copied.
+     */
+    private void cleanInstallForNodes() {
+        if (scratchArea != null) {
+            scratchArea.clean();
+        }
+        getTreeDeleter().emptyNow();
+    }
+
+    /**
+     * Reads the nodes of a domain. They are read directly from the domain.xml by a {@link DomainNodeReader} where
+     * possible, only falling back to parsing the whole domain.xml with the modules if that fails.
+     *
+     * @param domaindir The directory of the domain
+     * @return The nodes of the domain
+     */
+    private List<DomainNode> readNodes(File domaindir) throws IOException, CommandException, ConfigurationException {
+        File domainXMLFile = Paths.get(domaindir.getAbsolutePath(), "config", "domain.xml").toFile();
+        try {
+            return new DomainNodeReader(logger).read(domainXMLFile.toPath(), domaindir.getName());
+        } catch (IOException | RuntimeException exception) {
+            logger.log(Level.FINE, "Could not read nodes of domain " + domaindir.getName()
+                    + " directly, parsing the whole domain.xml instead", exception);
+        }
+
+        // Don't use default habitat - since we're a CLI command it doesn't have a view of all the services
+        // added via the modules directory
+        ConfigParser parser = new ConfigParser(getModulesServiceLocator());
+        try {
+            parser.logUnrecognisedElements(false);
+        } catch (NoSuchMethodError noSuchMethodError) {
+            logger.log(Level.FINE,
+                    "Using a version of ConfigParser that does not support disabling log messages via method",
+                    noSuchMethodError);
+        }
+
+        URL domainURL = domainXMLFile.toURI().toURL();
+        DomDocument doc = parser.parse(domainURL);
+        return doc.getRoot().createProxy(Domain.class).getNodes().getNode().stream()
+                .map(DomainNode::of)
+                .collect(Collectors.toList());
+    }
+
     private static String evaluateVariables(String nodeDir) {
         return nodeDir.replace("${com.sun.aas.productRoot}", System.getProperty("com.sun.aas.productRoot"));
     }
 
+    /**
+     * @return Whether the osgi-cache of domains and local instances should be kept, only removing the bundles whose
+     * module changed, rather than being cleared
+     */
+    protected boolean isKeepOsgiCache() {
+        return false;
+    }
+
+    /**
+     * Creates the invalidator used to clear the osgi-cache of local instances, comparing the previous install, with
+     * its ".old" suffixes, against the current one.
+     *
+     * @return The invalidator, or null if the caches need clearing completely
+     */
+    private OsgiCacheInvalidator createOsgiCacheInvalidator() {
+        if (!isKeepOsgiCache()) {
+            return null;
+        }
+        if (!Files.isDirectory(Paths.get(glassfishDir, "modules.old"))) {
+            logger.log(Level.INFO, "No previous install to compare modules against, clearing osgi-caches");
+            return null;
+        }
+
+        OsgiCacheInvalidator invalidator = new OsgiCacheInvalidator(Paths.get(glassfishDir, "modules"),
+                folder -> Paths.get(glassfishDir, folder + ".old"), folder -> Paths.get(glassfishDir, folder), logger);
+        try {
+            if (invalidator.isCacheCompatible()) {
+                return invalidator;
+            }
+            logger.log(Level.INFO, "The OSGi framework has changed, clearing osgi-caches");
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not compare OSGi frameworks, clearing osgi-caches: {0}",
+                    ioException.toString());
+        }
+        return null;
+    }
+
+    /**
+     * Clears an osgi-cache, keeping the bundles whose module didn't change if an invalidator is given.
+     *
+     * @return Any errors deleting the cache
+     */
+    private Stream<IOException> clearOsgiCache(Path osgiCache, OsgiCacheInvalidator invalidator) {
+        if (invalidator != null) {
+            try {
+                invalidator.invalidate(osgiCache);
+                return Stream.empty();
+            } catch (IOException ioException) {
+                logger.log(Level.WARNING, "Could not invalidate changed bundles of {0}, clearing it: {1}",
+                        new Object[]{osgiCache, ioException.toString()});
+            }
+        }
+        // Delete the subdirectories, not osgi-cache itself
+        return Stream.of(osgiCache.toFile().listFiles())
+                .map(f -> deleteDirectoryRecursively(f.toPath()));
+    }
+
     private IOException deleteDirectoryRecursively(Path dir) {
         try {
             Files.walkFileTree(dir, new DeleteFileVisitor());
@@ -335,6 +476,46 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
         }
     }
 
+    /**
+     * Gets the service locator with a view of the services of the modules directory, creating it on first use. The
+     * locator is shared by all domains, since creating it means loading every module.
+     *
+     * @return The service locator of the modules directory
+     * @throws CommandException If the service locator could not be created
+     */
+    private ServiceLocator getModulesServiceLocator() throws CommandException {
+        if (modulesServiceLocator == null) {
+            modulesServiceLocator = createServiceLocator();
+        }
+        return modulesServiceLocator;
+    }
+
+    /**
+     * Shuts down the service locator of the modules directory, if it was created, and closes its class loader.
+     */
+    private void closeModulesServiceLocator() {
+        if (modulesRegistry != null) {
+            try {
+                if (modulesServiceLocator != null) {
+                    modulesServiceLocator.shutdown();
+                }
+                modulesRegistry.shutdown();
+            } catch (RuntimeException runtimeException) {
+                logger.log(Level.FINE, "Error shutting down service locator", runtimeException);
+            }
+            modulesServiceLocator = null;
+            modulesRegistry = null;
+        }
+        if (modulesClassLoader != null) {
+            try {
+                modulesClassLoader.close();
+            } catch (IOException ioException) {
+                logger.log(Level.FINE, "Error closing modules class loader", ioException);
+            }
+            modulesClassLoader = null;
+        }
+    }
+
     private ServiceLocator createServiceLocator() throws CommandException {
         // Get the list of JAR files from the modules directory
         ArrayList<URL> urls = new ArrayList<>();
@@ -350,17 +531,18 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
             }
         }
 
-        ClassLoader cl = (ClassLoader) AccessController.doPrivileged(
+        modulesClassLoader = (URLClassLoader) AccessController.doPrivileged(
                 (PrivilegedAction) () -> new URLClassLoader(
                         urls.toArray(new URL[urls.size()]),
                         Globals.class.getClassLoader())
         );
 
-        ModulesRegistry registry = new StaticModulesRegistry(cl);
+        modulesRegistry = new StaticModulesRegistry(modulesClassLoader);
         ServiceLocator serviceLocator;
         try {
-            serviceLocator = registry.createServiceLocator("default");
+            serviceLocator = modulesRegistry.createServiceLocator("default");
         } catch (MultiException multiException) {
+            closeModulesServiceLocator();
             logger.log(Level.SEVERE, "Error creating service locator - something went wrong initialising " +
                     "service locator using modules directory " + Paths.get(glassfishDir, "modules"));
             throw new CommandException(multiException);
@@ -369,71 +551,360 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
         return serviceLocator;
     }
 
-    protected boolean reinstallSSHNode(Node node) {
+    /**
+     * Reinstalls SSH nodes concurrently. At most {@link #NODE_REINSTALL_THREADS} nodes are reinstalled at once, and
+     * at most {@link #NODE_REINSTALLS_PER_HOST} of those on the same host, since nodes on the same host may well
+     * share an install directory.
+     *
+     * @param sshNodes The nodes to reinstall
+     * @return The names of the nodes which failed to reinstall, in the order the nodes were given
+     */
+    protected List<String> reinstallSSHNodes(List<DomainNode> sshNodes) {
+        if (sshNodes.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Rather than have workers block waiting for a host to be free, each host gets its own queue of nodes
+        // which is worked through by as many tasks as the host is allowed
+        Map<String, Queue<DomainNode>> nodesByHost = new LinkedHashMap<>();
+        for (DomainNode node : sshNodes) {
+            nodesByHost.computeIfAbsent(node.getNodeHost(), host -> new ConcurrentLinkedQueue<>()).add(node);
+        }
+
+        Map<String, NodeReinstallResult> results = new ConcurrentHashMap<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Queue<DomainNode> hostNodes : nodesByHost.values()) {
+            for (int i = 0; i < Math.min(NODE_REINSTALLS_PER_HOST, hostNodes.size()); i++) {
+                tasks.add(() -> {
+                    DomainNode node;
+                    while ((node = hostNodes.poll()) != null) {
+                        try {
+                            results.put(node.getName(), isNodeSync() ? syncSSHNode(node) : reinstallSSHNode(node));
+                        } catch (RuntimeException runtimeException) {
+                            results.put(node.getName(),
+                                    NodeReinstallResult.failed(node.getName(), runtimeException.toString()));
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+
+        logger.log(Level.FINE, "Reinstalling {0} SSH nodes on {1} hosts",
+                new Object[]{sshNodes.size(), nodesByHost.size()});
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(NODE_REINSTALL_THREADS, tasks.size()));
+        // Nodes are reinstalled concurrently, so in-process commands mustn't prompt for anything
+        boolean interactive = programOpts != null && programOpts.isInteractive();
+        if (interactive) {
+            programOpts.setInteractive(false);
+        }
+        try {
+            executor.invokeAll(tasks);
+        } catch (InterruptedException interruptedException) {
+            logger.log(Level.SEVERE, "Interrupted while reinstalling SSH nodes");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            if (interactive) {
+                programOpts.setInteractive(true);
+            }
+        }
+
+        List<String> failingNodes = new ArrayList<>();
+        for (DomainNode node : sshNodes) {
+            NodeReinstallResult result = results.get(node.getName());
+            if (result == null) {
+                // Never got reinstalled
+                logger.log(Level.SEVERE, "SSH node {0} was not reinstalled", node.getName());
+                failingNodes.add(node.getName());
+            } else if (!result.isSuccess()) {
+                logger.log(Level.SEVERE, "Failed to reinstall SSH node {0}: {1}",
+                        new Object[]{result.getNodeName(), result.getFailure()});
+                failingNodes.add(node.getName());
+            }
+        }
+        return failingNodes;
+    }
+
+    /**
+     * Runs a command which takes a domain name, such as backup-domain, for every domain in the domain directory.
+     *
+     * @param commandName The name of the command to run
+     * @throws CommandException If the command failed for any of the domains, listing each failure
+     * @see #executeForEachDomain(String, DomainTask)
+     */
+    protected void executeForEachDomain(String commandName) throws CommandException {
+        executeForEachDomain(commandName, domaindir -> executeForDomain(commandName, domaindir.getName()));
+    }
+
+    /**
+     * Runs a task for every domain in the domain directory. At most {@link #DOMAIN_COMMAND_THREADS} domains are
+     * handled at once. Every domain is attempted even if the task fails for some of them.
+     *
+     * @param description What the task does, used in log and error messages
+     * @param task The task to run
+     * @throws CommandException If the task failed for any of the domains, listing each failure
+     */
+    protected void executeForEachDomain(String description, DomainTask task) throws CommandException {
+        executeForEachDomain(description, getDomainsDir().listFiles(File::isDirectory), task);
+    }
+
+    /**
+     * Runs a task for each of the given domains, as {@link #executeForEachDomain(String, DomainTask)} does for every
+     * domain.
+     *
+     * @param description What the task does, used in log and error messages
+     * @param domaindirs The directories of the domains
+     * @param task The task to run
+     * @throws CommandException If the task failed for any of the domains, listing each failure
+     */
+    protected void executeForEachDomain(String description, File[] domaindirs, DomainTask task)
+            throws CommandException {
+        if (domaindirs == null || domaindirs.length == 0) {
+            return;
+        }
+
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (File domaindir : domaindirs) {
+            tasks.add(() -> {
+                try {
+                    task.execute(domaindir);
+                    return null;
+                } catch (CommandException | IOException | RuntimeException exception) {
+                    return exception.toString();
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(DOMAIN_COMMAND_THREADS, tasks.size()));
+        // Domains are handled concurrently, so the commands mustn't prompt for anything
+        boolean interactive = programOpts != null && programOpts.isInteractive();
+        if (interactive) {
+            programOpts.setInteractive(false);
+        }
+        List<Future<String>> results;
+        try {
+            results = executor.invokeAll(tasks);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new CommandException("Interrupted while executing " + description);
+        } finally {
+            executor.shutdownNow();
+            if (interactive) {
+                programOpts.setInteractive(true);
+            }
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < domaindirs.length; i++) {
+            String failure;
+            try {
+                failure = results.get(i).get();
+            } catch (InterruptedException | ExecutionException exception) {
+                failure = exception.toString();
+            }
+            if (failure != null) {
+                logger.log(Level.SEVERE, "{0} failed for domain {1}: {2}",
+                        new Object[]{description, domaindirs[i].getName(), failure});
+                failures.add(domaindirs[i].getName() + " (" + failure + ")");
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new CommandException(description + " failed for domains: " + String.join(", ", failures));
+        }
+    }
+
+    /**
+     * Runs a command which takes a domain name, such as backup-domain, for a single domain.
+     *
+     * @param commandName The name of the command to run
+     * @param domainName The name of the domain
+     * @throws CommandException If the command failed
+     */
+    protected void executeForDomain(String commandName, String domainName) throws CommandException {
+        CLICommand command = CLICommand.getCommand(habitat, commandName);
+        int exitCode;
+        if (StringUtils.ok(domainDirParam)) {
+            logger.log(Level.FINE, "Executing command: {0}", commandName + " --domaindir "
+                    + domainDirParam + " " + domainName);
+            exitCode = command.execute(commandName, "--domaindir", domainDirParam, domainName);
+        } else {
+            logger.log(Level.FINE, "Executing command: {0}", commandName + " " + domainName);
+            exitCode = command.execute(commandName, domainName);
+        }
+
+        if (exitCode != SUCCESS && exitCode != WARNING) {
+            throw new CommandException(commandName + " exited with code " + exitCode);
+        }
+    }
+
+    /**
+     * A task run for each domain by {@link #executeForEachDomain(String, DomainTask)}.
+     */
+    @FunctionalInterface
+    protected interface DomainTask {
+
+        /**
+         * @param domaindir The directory of the domain
+         */
+        void execute(File domaindir) throws CommandException, IOException;
+    }
+
+    /**
+     * @return Whether SSH nodes should only be sent the files which differ from this install, rather than being
+     * reinstalled with the whole of it
+     */
+    protected boolean isNodeSync() {
+        return false;
+    }
+
+    /**
+     * Brings an SSH node up to date by only transferring the files which differ from this install, see
+     * {@link NodeSynchronizer}. Falls back to reinstalling the node if that isn't possible.
+     *
+     * @param node The node to synchronise
+     * @return The result of the synchronisation
+     */
+    protected NodeReinstallResult syncSSHNode(DomainNode node) {
+        // ssh is run non-interactively, so can't be given a password or passphrase
+        if (!getPasswords(node).isEmpty()) {
+            logger.log(Level.FINE, "SSH node {0} needs a password, reinstalling it instead of synchronising it",
+                    node.getName());
+            return reinstallSSHNode(node);
+        }
+
+        logger.log(Level.INFO, "Synchronising SSH node {0}", node.getName());
+        try (RemoteShell shell = new RemoteShell.Ssh(node.getNodeHost(), node.getSshPort(), node.getUserName(),
+                node.getKeyfile())) {
+            int transferred = getNodeSynchronizer().sync(shell, evaluateVariables(node.getInstallDir()));
+            logger.log(Level.INFO, "Synchronised SSH node {0}, transferred {1} files",
+                    new Object[]{node.getName(), transferred});
+            return NodeReinstallResult.succeeded(node.getName());
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not synchronise SSH node {0}, reinstalling it instead: {1}",
+                    new Object[]{node.getName(), ioException.toString()});
+            return reinstallSSHNode(node);
+        }
+    }
+
+    private synchronized NodeSynchronizer getNodeSynchronizer() {
+        if (nodeSynchronizer == null) {
+            nodeSynchronizer = new NodeSynchronizer(Paths.get(glassfishDir).getParent(), DEFAULT_TIMEOUT_MSEC, logger);
+        }
+        return nodeSynchronizer;
+    }
+
+    protected NodeReinstallResult reinstallSSHNode(DomainNode node) {
         logger.log(Level.INFO, "Reinstalling SSH node {0}", new Object[]{node.getName()});
-        ArrayList<String> command = new ArrayList<>();
-        SshConnector sshConnector = node.getSshConnector();
-        SshAuth sshAuth = sshConnector.getSshAuth();
-        command.add(SystemPropertyConstants.getAdminScriptLocation(glassfishDir));
-        command.add("--interactive=false");
-        if (ok(sshAuth.getPassword())) {
-            command.add("--passwordfile");
-            command.add("-");
+
+        List<String> arguments = new ArrayList<>();
+        arguments.add("install-node-ssh");
+
+        arguments.add("--installdir");
+        arguments.add(node.getInstallDir());
+
+        arguments.add("--force"); //override files already there
+
+        // Left to the defaults of install-node-ssh when the node has no ssh-connector or ssh-auth
+        if (ok(node.getSshPort())) {
+            arguments.add("--sshport");
+            arguments.add(node.getSshPort());
+        }
+        if (ok(node.getUserName())) {
+            arguments.add("--sshuser");
+            arguments.add(node.getUserName());
+        }
+        if (ok(node.getKeyfile())) {
+            arguments.add("--sshkeyfile");
+            arguments.add(node.getKeyfile());
         }
 
-        command.add("install-node-ssh");
+        arguments.add(node.getNodeHost());
 
-        command.add("--installdir");
-        command.add(node.getInstallDir());
+        // Passwords can only be given to install-node-ssh through the password file, which is shared by every
+        // command run in this JVM, so only nodes which don't need one are reinstalled in-process
+        if (getPasswords(node).isEmpty()) {
+            NodeReinstallResult result = reinstallSSHNodeInProcess(node, arguments);
+            if (result != null) {
+                return result;
+            }
+        }
 
-        command.add("--force"); //override files already there
+        return reinstallSSHNodeInNewProcess(node, arguments);
+    }
 
-        command.add("--sshport");
-        command.add(sshConnector.getSshPort());
-        command.add("--sshuser");
-        command.add(sshAuth.getUserName());
-        if (ok(sshAuth.getKeyfile())) {
-            command.add("--sshkeyfile");
-            command.add(sshAuth.getKeyfile());
+    /**
+     * Runs install-node-ssh within this JVM, avoiding the start up of a new asadmin for every node.
+     *
+     * @param node The node to reinstall
+     * @param arguments The install-node-ssh command and its arguments
+     * @return The result of the reinstall, or null if the command could not be run in-process
+     */
+    private NodeReinstallResult reinstallSSHNodeInProcess(DomainNode node, List<String> arguments) {
+        logger.log(Level.FINE, "Executing command: {0}", arguments);
+        try {
+            CLICommand installNodeCommand = CLICommand.getCommand(habitat, "install-node-ssh");
+            int exitCode = installNodeCommand.execute(arguments.toArray(new String[0]));
+            if (exitCode != SUCCESS && exitCode != WARNING) {
+                return NodeReinstallResult.failed(node.getName(), "install-node-ssh exited with code " + exitCode);
+            }
+            return NodeReinstallResult.succeeded(node.getName());
+        } catch (CommandException commandException) {
+            return NodeReinstallResult.failed(node.getName(), commandException.getMessage());
+        } catch (LinkageError | RuntimeException exception) {
+            // The command's classes are loaded on demand from the modules directory, which the upgrade may have
+            // replaced underneath us, so fall back to a fresh asadmin rather than failing the node
+            logger.log(Level.FINE, "Could not run install-node-ssh in-process for node {0}, running it in a " +
+                    "separate process instead: {1}", new Object[]{node.getName(), exception.toString()});
+            return null;
         }
+    }
 
-        command.add(node.getNodeHost());
+    private NodeReinstallResult reinstallSSHNodeInNewProcess(DomainNode node, List<String> arguments) {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(SystemPropertyConstants.getAdminScriptLocation(glassfishDir));
+        command.add("--interactive=false");
+        if (ok(node.getPassword())) {
+            command.add("--passwordfile");
+            command.add("-");
+        }
+        command.addAll(arguments);
 
         ProcessManager processManager = new ProcessManager(command);
-        processManager.setStdinLines(getPasswords(sshAuth));
+        processManager.setStdinLines(getPasswords(node));
 
         processManager.setTimeoutMsec(DEFAULT_TIMEOUT_MSEC);
         processManager.setEcho(logger.isLoggable(Level.SEVERE));
 
 
         logger.log(Level.FINE, "Executing command: {0}", command);
-        boolean commandSuccess = true;
         try {
             processManager.execute();
             if (processManager.getStdout().contains("Command install-node-ssh failed")) {
-                commandSuccess = false;
+                return NodeReinstallResult.failed(node.getName(), "Command install-node-ssh failed");
             }
         } catch (ProcessManagerException ex) {
             logger.log(Level.SEVERE, "Error while executing command: {0}", ex.getMessage());
-            commandSuccess = false;
 
             if (ex.getMessage().contains("process hasn't exited")) {
                 logger.log(Level.SEVERE, "ProcessManager executing `install-node-ssh` command did not exit - " +
                         "it may have timed out.");
             }
+            return NodeReinstallResult.failed(node.getName(), ex.getMessage());
         }
 
-        return commandSuccess;
+        return NodeReinstallResult.succeeded(node.getName());
     }
 
-    protected List<String> getPasswords(SshAuth auth) {
+    protected List<String> getPasswords(DomainNode node) {
         List<String> sshPasswords = new ArrayList<>();
 
-        if (ok(auth.getPassword())) {
-            sshPasswords.add("AS_ADMIN_SSHPASSWORD=" + auth.getPassword());
+        if (ok(node.getPassword())) {
+            sshPasswords.add("AS_ADMIN_SSHPASSWORD=" + node.getPassword());
         }
-        if (ok(auth.getKeyPassphrase())) {
-            sshPasswords.add("AS_ADMIN_SSHKEYPASSPHRASE=" + auth.getKeyPassphrase());
+        if (ok(node.getKeyPassphrase())) {
+            sshPasswords.add("AS_ADMIN_SSHKEYPASSPHRASE=" + node.getKeyPassphrase());
         }
 
         return sshPasswords;
@@ -441,13 +912,12 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
 
     protected void deleteStagedInstall() throws IOException {
         logger.log(Level.FINE, "Deleting staged install if present");
-        DeleteFileVisitor visitor = new DeleteFileVisitor();
         for (String folder : moveFolders) {
             // Only attempt to delete folders which exist
             // Don't fail out if it doesn't exist, just keep going - we want to delete all we can
             Path folderPath = Paths.get(glassfishDir, folder + ".new");
             if (folderPath.toFile().exists()) {
-                Files.walkFileTree(folderPath, visitor);
+                getTreeDeleter().delete(folderPath);
             } else {
                 logger.log(Level.FINEST, "Staged file {0} does not exist, skipping", folderPath.toString());
             }
@@ -455,60 +925,258 @@ public abstract class BaseUpgradeCommand extends LocalDomainCommand {
         logger.log(Level.FINE, "Deleted staged install");
     }
 
-    protected class CopyFileVisitor implements FileVisitor<Path> {
+    /**
+     * @return The deleter used for removing trees of the install, see {@link TreeDeleter}
+     */
+    protected TreeDeleter getTreeDeleter() {
+        if (treeDeleter == null) {
+            treeDeleter = new TreeDeleter(Paths.get(glassfishDir, TRASH_DIRECTORY), isBackgroundCleanup(), logger);
+        }
+        return treeDeleter;
+    }
 
-        private final Path sourcePath;
-        private final Path targetPath;
+    /**
+     * @return The scratch area for temporary files of the command, on the same file store as the install, see
+     * {@link ScratchArea}
+     */
+    protected ScratchArea getScratchArea() {
+        if (scratchArea == null) {
+            scratchArea = new ScratchArea(Paths.get(glassfishDir), getTreeDeleter(), logger);
+        }
+        return scratchArea;
+    }
 
-        public CopyFileVisitor(Path sourcePath, Path targetPath) {
-            this.sourcePath = sourcePath;
-            this.targetPath = targetPath;
+    /**
+     * @return Whether emptying the trash should be left to a background process once the command has completed
+     */
+    protected boolean isBackgroundCleanup() {
+        return false;
+    }
+
+    /**
+     * Deletes the scratch area of the command and empties the trash of any trees deleted by the command, in the
+     * background if requested.
+     */
+    protected void finishCleanup() {
+        if (scratchArea != null) {
+            scratchArea.clean();
         }
+        getTreeDeleter().finish();
+    }
 
-        @Override
-        public FileVisitResult preVisitDirectory(Path arg0, BasicFileAttributes arg1) throws IOException {
-            return FileVisitResult.CONTINUE;
+    /**
+     * @param old Whether to get the manifest of the previous install, kept for as long as its ".old" folders are
+     * @return The location of the manifest of the install, see {@link InstallManifest}
+     */
+    protected Path getInstallManifestPath(boolean old) {
+        return Paths.get(glassfishDir, "config", InstallManifest.FILE_NAME + (old ? InstallManifest.OLD_SUFFIX : ""));
+    }
+
+    /**
+     * Records the files of the install as they are once the command has completed in its manifest, see
+     * {@link InstallManifest}. Failing to do so doesn't fail the command, since the manifest only spares later
+     * commands from reading the installed files.
+     *
+     * @param version The version of the install, or null if it isn't known
+     * @param previous A previous manifest of the install to take unchanged entries from, or null
+     * @param extracted The entries of the archive the install was just extracted from, or null
+     */
+    protected void writeInstallManifest(String version, InstallManifest previous, Map<String, ZipEntry> extracted) {
+        Path manifestPath = getInstallManifestPath(false);
+        try {
+            logger.log(Level.FINE, "Writing install manifest {0}", manifestPath.toString());
+            InstallManifest manifest = InstallManifest.scan(moveFolders, folder -> Paths.get(glassfishDir, folder),
+                    version, previous, extracted, logger);
+            manifest.write(manifestPath);
+            logger.log(Level.FINEST, "Wrote install manifest {0} of {1} files",
+                    new Object[]{manifestPath.toString(), manifest.size()});
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not write install manifest {0}: {1}",
+                    new Object[]{manifestPath.toString(), ioException.toString()});
         }
+    }
 
-        @Override
-        public FileVisitResult visitFile(Path arg0, BasicFileAttributes arg1) throws IOException {
-            logger.log(Level.FINER, "Copying file {0}", arg0.toString());
+    /**
+     * Moves a file or directory tree with a single atomic rename, provided the source and target are on the same
+     * file store and there is nothing at the target to merge with.
+     *
+     * @param sourcePath The file or directory to move
+     * @param targetPath Where to move it to. An empty directory here is replaced.
+     * @return true if the source was renamed, false if it needs to be copied instead
+     * @throws IOException If the rename was attempted and failed for a reason other than being unsupported
+     */
+    protected boolean renameIfSameFileStore(Path sourcePath, Path targetPath) throws IOException {
+        if (!Files.exists(sourcePath) || !Files.isDirectory(targetPath.getParent())) {
+            return false;
+        }
 
-            Path resolvedPath = targetPath.resolve(sourcePath.relativize(arg0));
-            logger.log(Level.FINEST, "Copying to {0}", resolvedPath.toString());
+        if (!Files.getFileStore(sourcePath).equals(Files.getFileStore(targetPath.getParent()))) {
+            logger.log(Level.FINER, "{0} and {1} are on different file stores, copying instead of renaming",
+                    new Object[]{sourcePath.toString(), targetPath.toString()});
+            return false;
+        }
+
+        boolean replacedEmptyDirectory = false;
+        if (Files.isDirectory(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+            try (Stream<Path> children = Files.list(targetPath)) {
+                if (children.findAny().isPresent()) {
+                    logger.log(Level.FINER, "Target {0} is not empty, copying instead of renaming",
+                            targetPath.toString());
+                    return false;
+                }
+            }
+            Files.delete(targetPath);
+            replacedEmptyDirectory = true;
+        } else if (Files.exists(targetPath, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
 
-            File parentFile = resolvedPath.toFile().getParentFile();
-            if (!parentFile.exists()) {
-                logger.log(Level.FINEST, "Parent file does not exist, creating: {0}", parentFile.toString());
-                parentFile.mkdirs();
+        try {
+            logger.log(Level.FINER, "Renaming {0} to {1}", new Object[]{sourcePath.toString(), targetPath.toString()});
+            Files.move(sourcePath, targetPath, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (AtomicMoveNotSupportedException atomicMoveNotSupportedException) {
+            logger.log(Level.FINER, "Atomic rename of {0} not supported, copying instead", sourcePath.toString());
+            if (replacedEmptyDirectory) {
+                Files.createDirectory(targetPath);
             }
+            return false;
+        }
+    }
+
+    /**
+     * Moves the contents of one tree into another, overwriting anything already there, and removes the source tree.
+     * Since we may be recovering from a partially completed move, both trees can hold part of the files.
+     * <p>
+     * On the same file store this is done with per-entry renames (whole subtrees get renamed when they don't exist in
+     * the target yet), so no file content is copied. Across file stores it falls back to copying and deleting.
+     *
+     * @param sourcePath The tree to move from
+     * @param targetPath The tree to move into
+     * @throws IOException If the trees could not be merged
+     */
+    protected void mergeTree(Path sourcePath, Path targetPath) throws IOException {
+        if (!Files.exists(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            logger.log(Level.FINEST, "{0} does not exist, nothing to merge", sourcePath.toString());
+            return;
+        }
 
-            Files.copy(arg0, resolvedPath, StandardCopyOption.REPLACE_EXISTING);
+        if (renameIfSameFileStore(sourcePath, targetPath)) {
+            return;
+        }
 
-            logger.log(Level.FINEST, "Copied file {0} to {1}", new Object[]{arg0.toString(), resolvedPath.toString()});
-            return FileVisitResult.CONTINUE;
+        Files.createDirectories(targetPath.getParent());
+        if (Files.getFileStore(sourcePath).equals(Files.getFileStore(targetPath.getParent()))) {
+            logger.log(Level.FINER, "Merging {0} into {1} by renaming",
+                    new Object[]{sourcePath.toString(), targetPath.toString()});
+            Files.walkFileTree(sourcePath, new MergeFileVisitor(sourcePath, targetPath));
+        } else {
+            logger.log(Level.FINER, "Merging {0} into {1} by copying",
+                    new Object[]{sourcePath.toString(), targetPath.toString()});
+            copyTree(sourcePath, targetPath);
+            getTreeDeleter().delete(sourcePath);
         }
+    }
 
-        @Override
-        public FileVisitResult visitFileFailed(Path arg0, IOException arg1) throws IOException {
+    /**
+     * Copies a tree in parallel using a {@link ParallelTreeCopier}, overwriting any files already in the target.
+     *
+     * @param sourcePath The tree to copy
+     * @param targetPath Where to copy the tree to
+     * @throws IOException If the tree could not be copied
+     */
+    protected void copyTree(Path sourcePath, Path targetPath) throws IOException {
+        try {
+            new ParallelTreeCopier(logger).copy(sourcePath, targetPath);
+        } catch (NoSuchFileException nsfe) {
             // We can't nicely check if the "new" installation is a web distribution or not ("distribution" param is
             // optional with "useDownloaded"), so specifically catch a NSFE for the MQ directory.
-            if (arg1 instanceof NoSuchFileException && arg1.getMessage().contains(
+            if (nsfe.getMessage().contains(
                     "payara5" + File.separator + "glassfish" + File.separator + ".." + File.separator + "mq")) {
                 logger.log(Level.FINE, "Ignoring NoSuchFileException for mq directory under assumption " +
                         "this is a payara-web distribution. Continuing copy...");
-                return FileVisitResult.SKIP_SUBTREE;
+                return;
             }
 
-            logger.log(Level.SEVERE, "File could not visited: {0}", arg0.toString());
-            throw arg1;
+            logger.log(Level.SEVERE, "File could not visited: {0}", nsfe.getFile());
+            throw nsfe;
+        }
+    }
+
+    /**
+     * Moves a tree into another on the same file store by renaming its entries, see {@link #mergeTree(Path, Path)}.
+     */
+    protected class MergeFileVisitor implements FileVisitor<Path> {
+
+        private final Path sourcePath;
+        private final Path targetPath;
+
+        public MergeFileVisitor(Path sourcePath, Path targetPath) {
+            this.sourcePath = sourcePath;
+            this.targetPath = targetPath;
         }
 
         @Override
-        public FileVisitResult postVisitDirectory(Path arg0, IOException arg1) throws IOException {
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+            Path resolvedPath = targetPath.resolve(sourcePath.relativize(dir));
+            if (Files.isDirectory(resolvedPath, LinkOption.NOFOLLOW_LINKS)) {
+                // Both sides have this directory, merge their contents
+                return FileVisitResult.CONTINUE;
+            }
+
+            // Nothing to merge with, so the whole subtree can be moved with one rename
+            Files.deleteIfExists(resolvedPath);
+            logger.log(Level.FINER, "Renaming directory {0} to {1}", new Object[]{dir.toString(), resolvedPath.toString()});
+            Files.move(dir, resolvedPath);
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            Path resolvedPath = targetPath.resolve(sourcePath.relativize(file));
+            if (Files.exists(resolvedPath, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(file, resolvedPath)) {
+                // Hard linked by a delta upgrade, renaming one link over another would leave both in place
+                logger.log(Level.FINER, "{0} is already linked to {1}, removing it",
+                        new Object[]{file.toString(), resolvedPath.toString()});
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            logger.log(Level.FINER, "Renaming file {0} to {1}", new Object[]{file.toString(), resolvedPath.toString()});
+            try {
+                Files.move(file, resolvedPath, StandardCopyOption.REPLACE_EXISTING);
+            } catch (FileSystemException fileSystemException) {
+                // Some file systems refuse to rename over an existing file, hard link in its place instead
+                logger.log(Level.FINER, "Could not rename {0}, linking instead: {1}",
+                        new Object[]{file.toString(), fileSystemException.toString()});
+                Files.deleteIfExists(resolvedPath);
+                Files.createLink(resolvedPath, file);
+                Files.delete(file);
+            }
             return FileVisitResult.CONTINUE;
         }
 
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            if (exc instanceof NoSuchFileException) {
+                logger.log(Level.FINE, "Ignoring NoSuchFileException for {0} and continuing merge.", file.toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            logger.log(Level.SEVERE, "File could not be merged: {0}", file.toString());
+            throw exc;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            if (exc != null) {
+                throw exc;
+            }
+
+            // Everything in here has been moved out by now
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+        }
     }
 
     protected class DeleteFileVisitor implements FileVisitor<Path> {
@@ -0,0 +1,228 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes and applies binary patches between two versions of a file, as used by upgrade bundles.
+ * <p>
+ * The base file is split into fixed size blocks which are indexed by a rolling checksum, in the manner of rsync. The
+ * target file is then scanned for runs of bytes found in the base, which are encoded as copies from the base, with
+ * everything else inserted verbatim. Since the jars of a distribution compress each class separately, classes
+ * which didn't change between versions are found in the base even when their offsets have moved.
+ */
+final class BinaryDelta {
+
+    private static final int MAGIC = 0x50554244;
+    private static final int BLOCK_SIZE = 1024;
+
+    private static final byte END = 0;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    private BinaryDelta() {
+    }
+
+    /**
+     * Writes a patch which turns the base into the target.
+     *
+     * @param base The content of the old version of the file
+     * @param target The content of the new version of the file
+     * @param out Where to write the patch to
+     * @throws IOException If the patch could not be written
+     */
+    static void diff(byte[] base, byte[] target, OutputStream out) throws IOException {
+        DataOutputStream patch = new DataOutputStream(out);
+        patch.writeInt(MAGIC);
+        patch.writeInt(target.length);
+
+        Map<Integer, List<Integer>> blocks = indexBlocks(base);
+        int literalStart = 0;
+        int position = 0;
+        int checksum = target.length >= BLOCK_SIZE ? checksum(target, 0) : 0;
+
+        while (position + BLOCK_SIZE <= target.length) {
+            int match = findBlock(blocks.get(checksum), base, target, position);
+            if (match == -1) {
+                // Roll the checksum on by a single byte
+                if (position + BLOCK_SIZE < target.length) {
+                    checksum = roll(checksum, target[position], target[position + BLOCK_SIZE]);
+                }
+                position++;
+                continue;
+            }
+
+            // Grow the match as far as it goes in both directions
+            int length = BLOCK_SIZE;
+            while (position + length < target.length && match + length < base.length
+                    && target[position + length] == base[match + length]) {
+                length++;
+            }
+            while (position > literalStart && match > 0 && target[position - 1] == base[match - 1]) {
+                position--;
+                match--;
+                length++;
+            }
+
+            writeInsert(patch, target, literalStart, position);
+            patch.writeByte(COPY);
+            patch.writeInt(match);
+            patch.writeInt(length);
+
+            position += length;
+            literalStart = position;
+            if (position + BLOCK_SIZE <= target.length) {
+                checksum = checksum(target, position);
+            }
+        }
+
+        writeInsert(patch, target, literalStart, target.length);
+        patch.writeByte(END);
+        patch.flush();
+    }
+
+    /**
+     * Applies a patch produced by {@link #diff(byte[], byte[], OutputStream)}.
+     *
+     * @param base The content of the old version of the file
+     * @param in The patch
+     * @return The content of the new version of the file
+     * @throws IOException If the patch could not be read or doesn't fit the base
+     */
+    static byte[] apply(byte[] base, InputStream in) throws IOException {
+        DataInputStream patch = new DataInputStream(in);
+        if (patch.readInt() != MAGIC) {
+            throw new IOException("Not a binary patch");
+        }
+
+        byte[] target = new byte[patch.readInt()];
+        int position = 0;
+        try {
+            byte operation;
+            while ((operation = patch.readByte()) != END) {
+                if (operation == COPY) {
+                    int offset = patch.readInt();
+                    int length = patch.readInt();
+                    if (offset < 0 || length < 0 || offset + length > base.length) {
+                        throw new IOException("Binary patch does not fit the file it is applied to");
+                    }
+                    System.arraycopy(base, offset, target, position, length);
+                    position += length;
+                } else if (operation == INSERT) {
+                    int length = patch.readInt();
+                    patch.readFully(target, position, length);
+                    position += length;
+                } else {
+                    throw new IOException("Unknown operation in binary patch: " + operation);
+                }
+            }
+        } catch (IndexOutOfBoundsException | EOFException exception) {
+            throw new IOException("Binary patch is corrupt", exception);
+        }
+
+        if (position != target.length) {
+            throw new IOException("Binary patch is corrupt");
+        }
+        return target;
+    }
+
+    private static Map<Integer, List<Integer>> indexBlocks(byte[] base) {
+        Map<Integer, List<Integer>> blocks = new HashMap<>();
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            blocks.computeIfAbsent(checksum(base, offset), key -> new ArrayList<>(1)).add(offset);
+        }
+        return blocks;
+    }
+
+    private static int findBlock(List<Integer> candidates, byte[] base, byte[] target, int position) {
+        if (candidates == null) {
+            return -1;
+        }
+
+        for (int offset : candidates) {
+            int i = 0;
+            while (i < BLOCK_SIZE && base[offset + i] == target[position + i]) {
+                i++;
+            }
+            if (i == BLOCK_SIZE) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeInsert(DataOutputStream patch, byte[] target, int from, int to) throws IOException {
+        if (to > from) {
+            patch.writeByte(INSERT);
+            patch.writeInt(to - from);
+            patch.write(target, from, to - from);
+        }
+    }
+
+    /**
+     * The rsync weak checksum of a block: the sum of the bytes in the low half, and the sum of the running sums in
+     * the high half.
+     */
+    private static int checksum(byte[] data, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            a += data[offset + i] & 0xff;
+            b += (BLOCK_SIZE - i) * (data[offset + i] & 0xff);
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    private static int roll(int checksum, byte removed, byte added) {
+        int a = ((checksum & 0xffff) - (removed & 0xff) + (added & 0xff)) & 0xffff;
+        int b = ((checksum >>> 16) - BLOCK_SIZE * (removed & 0xff) + a) & 0xffff;
+        return a | (b << 16);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import com.sun.enterprise.admin.cli.CLICommand;
+import org.glassfish.api.Param;
+import org.glassfish.api.admin.CommandException;
+import org.glassfish.api.admin.CommandValidationException;
+import org.glassfish.hk2.api.PerLookup;
+import org.jvnet.hk2.annotations.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.logging.Level;
+
+/**
+ * Creates an upgrade bundle between two Payara distributions, which can be used with the upgrade-server command
+ * instead of the full distribution being upgraded to.
+ */
+@Service(name = "create-upgrade-bundle")
+@PerLookup
+public class CreateUpgradeBundleCommand extends CLICommand {
+
+    @Param(name = "from")
+    private File fromFile;
+
+    @Param(name = "to")
+    private File toFile;
+
+    @Param(name = "bundle", primary = true)
+    private File bundleFile;
+
+    @Override
+    protected void validate() throws CommandException {
+        super.validate();
+
+        for (File distribution : new File[]{fromFile, toFile}) {
+            if (!distribution.isFile()) {
+                throw new CommandValidationException("File specified does not exist: " + distribution);
+            }
+        }
+    }
+
+    @Override
+    protected int executeCommand() throws CommandException {
+        logger.log(Level.INFO, "Creating upgrade bundle...");
+        try {
+            new UpgradeBundle(logger).create(fromFile.toPath(), toFile.toPath(), bundleFile.toPath());
+            logger.log(Level.INFO, "Created upgrade bundle {0} of {1} bytes",
+                    new Object[]{bundleFile.toString(), Files.size(bundleFile.toPath())});
+        } catch (IOException ioException) {
+            logger.log(Level.SEVERE, "Error creating upgrade bundle: {0}", ioException.toString());
+            try {
+                Files.deleteIfExists(bundleFile.toPath());
+            } catch (IOException deleteException) {
+                logger.log(Level.WARNING, "Failed to delete incomplete upgrade bundle: {0}",
+                        deleteException.toString());
+            }
+            return ERROR;
+        }
+        return SUCCESS;
+    }
+}
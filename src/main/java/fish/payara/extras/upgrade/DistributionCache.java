@@ -0,0 +1,382 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of downloaded distributions, shared by every install upgraded by the same user on a machine.
+ * <p>
+ * Archives are stored once under their SHA-1 checksum, and an index maps each distribution and version to the
+ * checksum of its archive along with when it was last used. The checksum is verified on every hit so a corrupted
+ * archive is never handed out, and the least recently used archives are evicted once the cache grows beyond its
+ * size limit.
+ * <p>
+ * Since another upgrade may evict an archive as soon as the cache is unlocked, archives are never handed out from
+ * the cache itself but pinned to a file of the caller's while it is locked, see {@link #pin(Path, Path)}.
+ */
+class DistributionCache {
+
+    static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("fish.payara.upgrade.cache.dir",
+            Paths.get(System.getProperty("user.home"), ".payara", "upgrade-cache").toString()));
+
+    // Maximum size of the cache in megabytes, 0 disables it
+    static final long DEFAULT_MAX_SIZE_MB = Long.getLong("fish.payara.upgrade.cache.size", 1024);
+
+    private static final String INDEX_FILE = "index.properties";
+    private static final String LOCK_FILE = ".lock";
+    private static final String BLOB_DIRECTORY = "blobs";
+    private static final String DOWNLOAD_DIRECTORY = "downloads";
+    private static final String CHECKSUM_SUFFIX = ".sha1";
+    private static final String LAST_USED_SUFFIX = ".lastUsed";
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rwx------");
+
+    private final Path directory;
+    private final long maxSize;
+    private final Logger logger;
+
+    DistributionCache(Logger logger) {
+        this(DEFAULT_DIRECTORY, DEFAULT_MAX_SIZE_MB * 1024 * 1024, logger);
+    }
+
+    DistributionCache(Path directory, long maxSize, Logger logger) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.logger = logger;
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Looks up the archive of a distribution version.
+     *
+     * @param distribution The distribution, e.g. payara-web
+     * @param version The version, e.g. 6.1.0
+     * @param pinned The file outside the cache to make the archive available as. Any existing file is replaced.
+     * @return The pinned archive, or null if it isn't cached or failed verification
+     * @throws IOException If the cache could not be read, or the archive could not be pinned
+     */
+    Path get(String distribution, String version, Path pinned) throws IOException {
+        if (!isEnabled() || !Files.exists(directory.resolve(INDEX_FILE))) {
+            return null;
+        }
+
+        String key = key(distribution, version);
+        try (FileChannel lock = lock()) {
+            Properties index = loadIndex();
+            String checksum = index.getProperty(key + CHECKSUM_SUFFIX);
+            if (checksum == null) {
+                logger.log(Level.FINE, "Distribution {0} not found in cache", key);
+                return null;
+            }
+
+            Path blob = blobPath(checksum);
+            if (!Files.exists(blob) || !checksum.equals(checksum(blob))) {
+                logger.log(Level.WARNING, "Cached archive for {0} is missing or corrupt, discarding it", key);
+                index.remove(key + CHECKSUM_SUFFIX);
+                index.remove(key + LAST_USED_SUFFIX);
+                Files.deleteIfExists(blob);
+                storeIndex(index);
+                return null;
+            }
+
+            index.setProperty(key + LAST_USED_SUFFIX, Long.toString(System.currentTimeMillis()));
+            storeIndex(index);
+            logger.log(Level.FINE, "Found distribution {0} in cache: {1}", new Object[]{key, blob.toString()});
+            return pin(blob, pinned);
+        }
+    }
+
+    /**
+     * Moves a downloaded archive into the cache, evicting the least recently used archives if it is now too large.
+     *
+     * @param distribution The distribution, e.g. payara-web
+     * @param version The version, e.g. 6.1.0
+     * @param archive The downloaded archive. This is moved into the cache.
+     * @param pinned The file outside the cache to make the archive available as. Any existing file is replaced.
+     * @return The pinned archive
+     * @throws IOException If the archive could not be added to the cache, or could not be pinned
+     */
+    Path put(String distribution, String version, Path archive, Path pinned) throws IOException {
+        String key = key(distribution, version);
+        String checksum = checksum(archive);
+        Files.createDirectories(directory.resolve(BLOB_DIRECTORY));
+
+        try (FileChannel lock = lock()) {
+            Path blob = blobPath(checksum);
+            if (Files.exists(blob)) {
+                // Identical content is already cached, possibly under another key
+                Files.delete(archive);
+            } else {
+                Path tempBlob = blob.resolveSibling(blob.getFileName() + ".tmp");
+                Files.move(archive, tempBlob, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempBlob, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            Properties index = loadIndex();
+            index.setProperty(key + CHECKSUM_SUFFIX, checksum);
+            index.setProperty(key + LAST_USED_SUFFIX, Long.toString(System.currentTimeMillis()));
+            evict(index, checksum);
+            storeIndex(index);
+
+            logger.log(Level.FINE, "Cached distribution {0} as {1}", new Object[]{key, blob.toString()});
+            return pin(blob, pinned);
+        }
+    }
+
+    /**
+     * Makes a cached archive available outside the cache, so that evicting it doesn't pull it from under the upgrade
+     * using it. The archive is hard linked where possible, which leaves it in place when the cache deletes its own
+     * link, and copied otherwise, e.g. when the file is on another file store. Must be called with the lock held.
+     */
+    private Path pin(Path blob, Path pinned) throws IOException {
+        Files.deleteIfExists(pinned);
+        try {
+            Files.createLink(pinned, blob);
+        } catch (IOException | UnsupportedOperationException exception) {
+            logger.log(Level.FINER, "Could not link {0} to {1}, copying it instead: {2}",
+                    new Object[]{pinned.toString(), blob.toString(), exception.toString()});
+            Files.copy(blob, pinned, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return pinned;
+    }
+
+    /**
+     * Gets the directory partial downloads are kept in until they are complete and can be put in the cache. This lives
+     * in the cache directory rather than a shared temporary directory, and is only accessible to its owner, so that
+     * other users can't plant or tamper with a download that is later resumed and installed.
+     *
+     * @return The download directory
+     * @throws IOException If the directory could not be created, or isn't a private directory of the current user
+     */
+    Path getDownloadDirectory() throws IOException {
+        Path downloadDirectory = directory.resolve(DOWNLOAD_DIRECTORY);
+        boolean posix = Files.getFileStore(Files.createDirectories(directory))
+                .supportsFileAttributeView(PosixFileAttributeView.class);
+        try {
+            if (posix) {
+                Files.createDirectory(downloadDirectory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+            } else {
+                Files.createDirectory(downloadDirectory);
+            }
+        } catch (FileAlreadyExistsException alreadyExists) {
+            // Left by a previous run, checked below
+        }
+
+        if (!Files.isDirectory(downloadDirectory, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Download directory " + downloadDirectory + " is not a directory");
+        }
+        if (posix) {
+            UserPrincipal owner = Files.getOwner(downloadDirectory, LinkOption.NOFOLLOW_LINKS);
+            UserPrincipal user = downloadDirectory.getFileSystem().getUserPrincipalLookupService()
+                    .lookupPrincipalByName(System.getProperty("user.name"));
+            if (!owner.equals(user)) {
+                throw new IOException("Download directory " + downloadDirectory + " is owned by " + owner.getName());
+            }
+            // Tighten the permissions of a directory left by an older version, or widened since
+            Files.setPosixFilePermissions(downloadDirectory, OWNER_ONLY);
+        }
+        return downloadDirectory;
+    }
+
+    /**
+     * Removes least recently used archives until the cache fits within its maximum size. The archive just added is
+     * never evicted, even if it is larger than the cache on its own.
+     */
+    private void evict(Properties index, String keep) throws IOException {
+        List<String> keysByAge = index.stringPropertyNames().stream()
+                .filter(name -> name.endsWith(CHECKSUM_SUFFIX))
+                .map(name -> name.substring(0, name.length() - CHECKSUM_SUFFIX.length()))
+                .sorted(Comparator.comparingLong(key -> Long.parseLong(
+                        index.getProperty(key + LAST_USED_SUFFIX, "0"))))
+                .collect(Collectors.toList());
+
+        long size = size();
+        for (String key : keysByAge) {
+            if (size <= maxSize) {
+                break;
+            }
+
+            String checksum = index.getProperty(key + CHECKSUM_SUFFIX);
+            if (checksum.equals(keep)) {
+                continue;
+            }
+
+            index.remove(key + CHECKSUM_SUFFIX);
+            index.remove(key + LAST_USED_SUFFIX);
+            if (isReferenced(index, checksum)) {
+                continue;
+            }
+
+            Path blob = blobPath(checksum);
+            if (Files.exists(blob)) {
+                size -= Files.size(blob);
+                Files.delete(blob);
+                logger.log(Level.FINE, "Evicted distribution {0} from cache", key);
+            }
+        }
+
+        // Tidy up any archives no longer referenced by the index, e.g. left over from an interrupted put
+        Set<String> referenced = new HashSet<>();
+        for (String name : index.stringPropertyNames()) {
+            if (name.endsWith(CHECKSUM_SUFFIX)) {
+                referenced.add(index.getProperty(name));
+            }
+        }
+        referenced.add(keep);
+        try (Stream<Path> blobs = Files.list(directory.resolve(BLOB_DIRECTORY))) {
+            for (Path blob : blobs.collect(Collectors.toList())) {
+                String name = blob.getFileName().toString();
+                if (!referenced.contains(name.substring(0, name.indexOf('.') < 0 ? name.length() : name.indexOf('.')))) {
+                    Files.deleteIfExists(blob);
+                }
+            }
+        }
+    }
+
+    private static boolean isReferenced(Properties index, String checksum) {
+        return index.stringPropertyNames().stream()
+                .anyMatch(name -> name.endsWith(CHECKSUM_SUFFIX) && checksum.equals(index.getProperty(name)));
+    }
+
+    private long size() throws IOException {
+        try (Stream<Path> blobs = Files.list(directory.resolve(BLOB_DIRECTORY))) {
+            long size = 0;
+            for (Path blob : blobs.collect(Collectors.toList())) {
+                size += Files.size(blob);
+            }
+            return size;
+        }
+    }
+
+    private Path blobPath(String checksum) {
+        return directory.resolve(BLOB_DIRECTORY).resolve(checksum + ".zip");
+    }
+
+    private static String key(String distribution, String version) {
+        return distribution + "-" + version;
+    }
+
+    /**
+     * Takes an exclusive lock on the cache, so that upgrades of different installs running at the same time don't
+     * corrupt the index.
+     *
+     * @return The locked channel, closing it releases the lock
+     */
+    private FileChannel lock() throws IOException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            // Released when the channel is closed
+            channel.lock();
+            return channel;
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    private Properties loadIndex() throws IOException {
+        Properties index = new Properties();
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try (InputStream in = Files.newInputStream(indexFile)) {
+                index.load(in);
+            }
+        }
+        return index;
+    }
+
+    private void storeIndex(Properties index) throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        Path tempFile = directory.resolve(INDEX_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            index.store(out, "Payara upgrade tool distribution cache");
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static String checksum(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+
+            StringBuilder checksum = new StringBuilder();
+            for (byte b : digest.digest()) {
+                checksum.append(String.format("%02x", b));
+            }
+            return checksum.toString();
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IOException(noSuchAlgorithmException);
+        }
+    }
+}
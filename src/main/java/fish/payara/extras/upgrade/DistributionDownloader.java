@@ -0,0 +1,477 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.glassfish.api.admin.CommandException;
+import org.glassfish.api.admin.CommandValidationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a distribution over HTTP. When the server supports range requests the file is preallocated and fetched
+ * as several byte ranges in parallel, with the progress of each range recorded next to the partial file so that an
+ * interrupted download is resumed by the next run instead of being started over.
+ */
+class DistributionDownloader {
+
+    // Number of ranges to fetch in parallel
+    static final int DEFAULT_SEGMENTS = Integer.getInteger("fish.payara.upgrade.download.segments", 4);
+
+    // Number of times a range is requested again after a dropped connection before giving up
+    static final int DEFAULT_ATTEMPTS = Integer.getInteger("fish.payara.upgrade.download.attempts", 3);
+
+    // Ranges smaller than this aren't worth a connection of their own
+    private static final long MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+
+    // How much of a range is downloaded between saves of the progress file
+    private static final long SAVE_INTERVAL = 4L * 1024 * 1024;
+
+    // How long to wait for the other segments to stop once one of them has failed
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".segments";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)");
+
+    /**
+     * Opens connections for the downloader, allowing the command to supply its own (and tests to substitute theirs).
+     */
+    @FunctionalInterface
+    interface ConnectionFactory {
+        HttpURLConnection getConnection(String url) throws IOException;
+    }
+
+    private final ConnectionFactory connectionFactory;
+    private final String authorization;
+    private final int segments;
+    private final int attempts;
+    private final Logger logger;
+
+    DistributionDownloader(ConnectionFactory connectionFactory, String authorization, Logger logger) {
+        this(connectionFactory, authorization, DEFAULT_SEGMENTS, DEFAULT_ATTEMPTS, logger);
+    }
+
+    DistributionDownloader(ConnectionFactory connectionFactory, String authorization, int segments, int attempts,
+            Logger logger) {
+        this.connectionFactory = connectionFactory;
+        this.authorization = authorization;
+        this.segments = Math.max(1, segments);
+        this.attempts = Math.max(1, attempts);
+        this.logger = logger;
+    }
+
+    /**
+     * Opens a plain sequential GET on the given URL.
+     *
+     * @param url The URL of the distribution
+     * @return The response body
+     * @throws CommandException If the server didn't respond with the distribution
+     * @throws IOException If the connection could not be made
+     */
+    InputStream open(String url) throws IOException, CommandException {
+        HttpURLConnection connection = connect(url, null);
+        checkResponseCode(connection.getResponseCode());
+        return connection.getInputStream();
+    }
+
+    /**
+     * Downloads the given URL into the target file, resuming a previous partial download of the same file if one is
+     * found.
+     *
+     * @param url The URL of the distribution
+     * @param target The file to download to
+     * @throws CommandException If the server didn't respond with the distribution
+     * @throws IOException If the download failed. The partial download is kept so that it can be resumed.
+     */
+    void download(String url, Path target) throws IOException, CommandException {
+        Path partFile = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        Path stateFile = target.resolveSibling(target.getFileName() + STATE_SUFFIX);
+
+        // Ask for the first byte only: a partial response tells us both that ranges are supported and the total size
+        HttpURLConnection probe = connect(url, "bytes=0-0");
+        int code = probe.getResponseCode();
+        checkResponseCode(code);
+
+        Matcher contentRange = CONTENT_RANGE.matcher(String.valueOf(probe.getHeaderField("Content-Range")));
+        if (code != HttpURLConnection.HTTP_PARTIAL || !contentRange.matches()) {
+            logger.log(Level.FINE, "Server does not support range requests, downloading {0} sequentially", url);
+            try (InputStream in = probe.getInputStream()) {
+                Files.copy(in, partFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.deleteIfExists(stateFile);
+            Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        try (InputStream in = probe.getInputStream()) {
+            while (in.read() != -1) {
+                // Drain the single byte so the connection can be reused
+            }
+        }
+
+        long length = Long.parseLong(contentRange.group(3));
+        String validator = probe.getHeaderField("ETag");
+        if (validator == null) {
+            validator = probe.getHeaderField("Last-Modified");
+        }
+
+        DownloadState state = Files.exists(partFile, LinkOption.NOFOLLOW_LINKS)
+                ? DownloadState.load(stateFile, url, length, validator) : null;
+        if (state == null) {
+            int segmentCount = (int) Math.max(1, Math.min(segments, length / MIN_SEGMENT_SIZE));
+            logger.log(Level.FINE, "Downloading {0} bytes in {1} segments",
+                    new Object[]{length, segmentCount});
+            state = DownloadState.create(stateFile, url, length, validator, segmentCount);
+            try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+                // Preallocate by writing the last byte, the segments then fill in the rest
+                if (length > 0) {
+                    channel.write(ByteBuffer.allocate(1), length - 1);
+                }
+            }
+            state.save();
+        } else {
+            logger.log(Level.INFO, "Resuming previous download, {0} of {1} bytes already downloaded",
+                    new Object[]{state.downloaded(), length});
+        }
+
+        try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+            fetchSegments(url, channel, state);
+        } finally {
+            // Interrupting a segment closes the channel they share, so flush through a new one
+            try (FileChannel channel = FileChannel.open(partFile, StandardOpenOption.WRITE,
+                    LinkOption.NOFOLLOW_LINKS)) {
+                saveProgress(channel, state);
+            } catch (IOException ioException) {
+                // Mustn't hide why the download failed, losing progress only means the next run fetches more
+                logger.log(Level.FINE, "Could not save download progress: {0}", ioException.toString());
+            }
+        }
+
+        Files.delete(stateFile);
+        Files.move(partFile, target, StandardCopyOption.REPLACE_EXISTING);
+        logger.log(Level.FINEST, "Downloaded {0} to {1}", new Object[]{url, target.toString()});
+    }
+
+    private void fetchSegments(String url, FileChannel channel, DownloadState state)
+            throws IOException, CommandException {
+        ExecutorService executor = Executors.newFixedThreadPool(state.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < state.size(); i++) {
+                final int segment = i;
+                futures.add(executor.submit(() -> {
+                    fetchSegment(url, channel, state, segment);
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException executionException) {
+                    Throwable cause = executionException.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof CommandException) {
+                        throw (CommandException) cause;
+                    }
+                    throw new IOException(cause);
+                } catch (InterruptedException interruptedException) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading", interruptedException);
+                }
+            }
+        } finally {
+            // Don't let the caller record progress while segments are still writing to the file
+            executor.shutdownNow();
+            try {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.log(Level.FINE, "Download segments did not stop within {0} seconds",
+                            SHUTDOWN_TIMEOUT_SECONDS);
+                }
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void fetchSegment(String url, FileChannel channel, DownloadState state, int segment)
+            throws IOException, CommandException {
+        IOException failure = null;
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            long position = state.position(segment);
+            long end = state.end(segment);
+            if (position > end) {
+                return;
+            }
+
+            try {
+                HttpURLConnection connection = connect(url, "bytes=" + position + "-" + end);
+                int code = connection.getResponseCode();
+                checkResponseCode(code);
+                if (code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Server did not honour range request for bytes " + position + "-" + end);
+                }
+
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    long unsaved = 0;
+                    int read;
+                    while (position <= end
+                            && (read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                        while (byteBuffer.hasRemaining()) {
+                            position += channel.write(byteBuffer, position);
+                        }
+                        state.advance(segment, position);
+
+                        unsaved += read;
+                        if (unsaved >= SAVE_INTERVAL) {
+                            saveProgress(channel, state);
+                            unsaved = 0;
+                        }
+                    }
+                }
+
+                if (position <= end) {
+                    throw new EOFException("Connection closed with " + (end - position + 1)
+                            + " bytes of the segment remaining");
+                }
+                return;
+            } catch (IOException ioException) {
+                logger.log(Level.FINE, "Download of segment {0} failed on attempt {1}: {2}",
+                        new Object[]{segment, attempt, ioException.toString()});
+                // The download is being abandoned, a new request would only write to a closed file
+                if (ioException instanceof ClosedChannelException || Thread.currentThread().isInterrupted()) {
+                    throw ioException;
+                }
+                failure = ioException;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Records how far the download has got. The downloaded data is flushed to disk first, otherwise a crash could
+     * leave a state file claiming bytes that never made it into the partial file, which a resumed download would then
+     * skip.
+     */
+    private static void saveProgress(FileChannel channel, DownloadState state) throws IOException {
+        // Take the positions before flushing, segments carry on writing while the flush runs
+        long[] positions = state.positions();
+        channel.force(true);
+        state.save(positions);
+    }
+
+    private HttpURLConnection connect(String url, String range) throws IOException {
+        HttpURLConnection connection = connectionFactory.getConnection(url);
+        if (authorization != null) {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        return connection;
+    }
+
+    private void checkResponseCode(int code) throws CommandException {
+        if (code == HttpURLConnection.HTTP_OK || code == HttpURLConnection.HTTP_PARTIAL) {
+            return;
+        }
+
+        if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+            logger.log(Level.SEVERE, "The version indicated is incorrect, please set correct version and try again");
+            throw new CommandValidationException("Payara version not found");
+        }
+
+        logger.log(Level.SEVERE, "Error connecting to server: {0}", code);
+        throw new CommandException("Error connecting to server: " + code);
+    }
+
+    /**
+     * The ranges making up a download and how far each of them has got, persisted as a properties file.
+     */
+    private static class DownloadState {
+
+        private final Path file;
+        private final Properties identity = new Properties();
+        private final long[] positions;
+        private final long[] ends;
+
+        private DownloadState(Path file, String url, long length, String validator, int segments) {
+            this.file = file;
+            identity.setProperty("url", url);
+            identity.setProperty("length", Long.toString(length));
+            if (validator != null) {
+                identity.setProperty("validator", validator);
+            }
+            this.positions = new long[segments];
+            this.ends = new long[segments];
+        }
+
+        static DownloadState create(Path file, String url, long length, String validator, int segments) {
+            DownloadState state = new DownloadState(file, url, length, validator, segments);
+            long segmentSize = length / segments;
+            for (int i = 0; i < segments; i++) {
+                state.positions[i] = i * segmentSize;
+                state.ends[i] = i == segments - 1 ? length - 1 : (i + 1) * segmentSize - 1;
+            }
+            return state;
+        }
+
+        /**
+         * Loads a previously saved state, provided it was for the same URL and the same version of the file.
+         *
+         * @return The saved state, or null if there is none or it doesn't match
+         */
+        static DownloadState load(Path file, String url, long length, String validator) {
+            if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+                return null;
+            }
+
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file, LinkOption.NOFOLLOW_LINKS)) {
+                properties.load(in);
+
+                if (!url.equals(properties.getProperty("url"))
+                        || !Long.toString(length).equals(properties.getProperty("length"))
+                        || (validator != null && !validator.equals(properties.getProperty("validator")))) {
+                    return null;
+                }
+
+                int segments = Integer.parseInt(properties.getProperty("segments"));
+                DownloadState state = new DownloadState(file, url, length, validator, segments);
+                for (int i = 0; i < segments; i++) {
+                    String[] segment = properties.getProperty("segment." + i).split(",");
+                    state.positions[i] = Long.parseLong(segment[0]);
+                    state.ends[i] = Long.parseLong(segment[1]);
+                }
+                return state;
+            } catch (IOException | RuntimeException exception) {
+                // An unreadable state file just means starting over
+                return null;
+            }
+        }
+
+        int size() {
+            return positions.length;
+        }
+
+        synchronized long position(int segment) {
+            return positions[segment];
+        }
+
+        long end(int segment) {
+            return ends[segment];
+        }
+
+        synchronized long[] positions() {
+            return positions.clone();
+        }
+
+        synchronized void advance(int segment, long position) {
+            positions[segment] = position;
+        }
+
+        synchronized long downloaded() {
+            long downloaded = 0;
+            for (int i = 0; i < positions.length; i++) {
+                downloaded += positions[i] - (i == 0 ? 0 : ends[i - 1] + 1);
+            }
+            return downloaded;
+        }
+
+        void save() throws IOException {
+            save(positions());
+        }
+
+        /**
+         * Saves the state with the given positions, which may lag behind the current ones.
+         */
+        synchronized void save(long[] savedPositions) throws IOException {
+            Properties properties = new Properties();
+            properties.putAll(identity);
+            properties.setProperty("segments", Integer.toString(savedPositions.length));
+            for (int i = 0; i < savedPositions.length; i++) {
+                properties.setProperty("segment." + i, savedPositions[i] + "," + ends[i]);
+            }
+
+            // Write then rename so that a kill part way through never leaves a truncated state file behind
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            properties.store(out, null);
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, LinkOption.NOFOLLOW_LINKS)) {
+                ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
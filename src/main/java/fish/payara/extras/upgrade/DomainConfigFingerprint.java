@@ -0,0 +1,147 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A fingerprint of the configuration of a domain, the content of its config directory, recorded when the domain is
+ * backed up during an upgrade. A rollback only needs to restore the domains whose configuration has changed since.
+ */
+class DomainConfigFingerprint {
+
+    static final String FINGERPRINT_FILE = "config.fingerprint";
+
+    // Files which change whenever the domain is started or stopped, rather than when it is configured
+    private static final List<String> VOLATILE = Arrays.asList("pid", "pid.prev", "local-password", "lockfile");
+
+    private final Path domainDirectory;
+    private final Path recorded;
+    private final Logger logger;
+
+    DomainConfigFingerprint(Path domainDirectory, Logger logger) {
+        this.domainDirectory = domainDirectory;
+        this.recorded = domainDirectory.resolve(IncrementalDomainBackup.BACKUP_DIRECTORY)
+                .resolve(IncrementalDomainBackup.STORE_DIRECTORY).resolve(FINGERPRINT_FILE);
+        this.logger = logger;
+    }
+
+    /**
+     * Records the fingerprint of the current configuration.
+     *
+     * @throws IOException If the configuration could not be read or the fingerprint could not be written
+     */
+    void record() throws IOException {
+        String fingerprint = compute();
+        Files.createDirectories(recorded.getParent());
+        Files.write(recorded, fingerprint.getBytes(StandardCharsets.UTF_8));
+        logger.log(Level.FINER, "Recorded config fingerprint {0} of domain {1}",
+                new Object[]{fingerprint, domainDirectory.getFileName()});
+    }
+
+    /**
+     * Removes the recorded fingerprint, such as when the backup it was recorded with failed.
+     *
+     * @throws IOException If the fingerprint could not be deleted
+     */
+    void clear() throws IOException {
+        Files.deleteIfExists(recorded);
+    }
+
+    /**
+     * @return Whether the configuration is the same as when the fingerprint was recorded. False if there is no
+     * recorded fingerprint, or either couldn't be read.
+     */
+    boolean isUnchanged() {
+        if (!Files.isRegularFile(recorded)) {
+            return false;
+        }
+        try {
+            String expected = new String(Files.readAllBytes(recorded), StandardCharsets.UTF_8).trim();
+            return expected.equals(compute());
+        } catch (IOException ioException) {
+            logger.log(Level.FINE, "Could not compare config fingerprint of domain " + domainDirectory.getFileName(),
+                    ioException);
+            return false;
+        }
+    }
+
+    /**
+     * @return The SHA-256 of the names, sizes and content of every file in the config directory, in name order
+     */
+    String compute() throws IOException {
+        Path config = domainDirectory.resolve("config");
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(config)) {
+            files = paths.filter(Files::isRegularFile)
+                    .filter(path -> !VOLATILE.contains(config.relativize(path).toString()))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        MessageDigest digest = IncrementalDomainBackup.sha256();
+        byte[] buffer = new byte[64 * 1024];
+        for (Path file : files) {
+            digest.update(config.relativize(file).toString().replace('\\', '/').getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(Long.toString(Files.size(file)).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            try (InputStream in = Files.newInputStream(file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            digest.update((byte) 0);
+        }
+        return IncrementalDomainBackup.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import com.sun.enterprise.config.serverbeans.Node;
+import com.sun.enterprise.config.serverbeans.SshAuth;
+import com.sun.enterprise.config.serverbeans.SshConnector;
+import com.sun.enterprise.util.net.NetUtils;
+
+/**
+ * The configuration of a node which the upgrade commands need to upgrade it, with its SSH connector and
+ * authentication flattened into it. The SSH attributes are null for nodes without them.
+ */
+final class DomainNode {
+
+    private final String name;
+    private final String type;
+    private final String nodeHost;
+    private final String nodeDir;
+    private final String installDir;
+    private final String sshPort;
+    private final String userName;
+    private final String password;
+    private final String keyfile;
+    private final String keyPassphrase;
+    private final boolean defaultLocalNode;
+
+    DomainNode(String name, String type, String nodeHost, String nodeDir, String installDir, String sshPort,
+            String userName, String password, String keyfile, String keyPassphrase, boolean defaultLocalNode) {
+        this.name = name;
+        this.type = type;
+        this.nodeHost = nodeHost;
+        this.nodeDir = nodeDir;
+        this.installDir = installDir;
+        this.sshPort = sshPort;
+        this.userName = userName;
+        this.password = password;
+        this.keyfile = keyfile;
+        this.keyPassphrase = keyPassphrase;
+        this.defaultLocalNode = defaultLocalNode;
+    }
+
+    /**
+     * Copies the attributes of a node read into config beans.
+     *
+     * @param node The node config bean
+     * @return The node
+     */
+    static DomainNode of(Node node) {
+        SshConnector sshConnector = node.getSshConnector();
+        SshAuth sshAuth = sshConnector == null ? null : sshConnector.getSshAuth();
+        return new DomainNode(node.getName(), node.getType(), node.getNodeHost(), node.getNodeDir(),
+                node.getInstallDir(),
+                sshConnector == null ? null : sshConnector.getSshPort(),
+                sshAuth == null ? null : sshAuth.getUserName(),
+                sshAuth == null ? null : sshAuth.getPassword(),
+                sshAuth == null ? null : sshAuth.getKeyfile(),
+                sshAuth == null ? null : sshAuth.getKeyPassphrase(),
+                node.isDefaultLocalNode());
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    String getNodeHost() {
+        return nodeHost;
+    }
+
+    String getNodeDir() {
+        return nodeDir;
+    }
+
+    String getInstallDir() {
+        return installDir;
+    }
+
+    String getSshPort() {
+        return sshPort;
+    }
+
+    String getUserName() {
+        return userName;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    String getKeyfile() {
+        return keyfile;
+    }
+
+    String getKeyPassphrase() {
+        return keyPassphrase;
+    }
+
+    boolean isDefaultLocalNode() {
+        return defaultLocalNode;
+    }
+
+    /**
+     * Whether the node is on this machine. Worked out when asked for rather than when the node is read, since it may
+     * need to resolve the host.
+     *
+     * @return Whether the node is the default local node of the domain, or its host is this machine
+     */
+    boolean isLocal() {
+        return defaultLocalNode || (nodeHost != null && !nodeHost.isEmpty() && NetUtils.isThisHostLocal(nodeHost));
+    }
+
+    @Override
+    public String toString() {
+        return "node " + name;
+    }
+}
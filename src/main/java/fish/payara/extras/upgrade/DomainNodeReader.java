@@ -0,0 +1,183 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the nodes of a domain straight from its domain.xml with a streaming parser, rather than loading every module
+ * to parse the whole of it into config beans.
+ * <p>
+ * Only the domain/nodes/node elements, with their ssh-connector and ssh-auth, are read, and reading stops once the
+ * nodes element has ended. Attributes which aren't set are given the same defaults as the config beans.
+ */
+class DomainNodeReader {
+
+    private static final String DEFAULT_INSTALL_DIR = "${com.sun.aas.productRoot}";
+    private static final String DEFAULT_SSH_PORT = "22";
+    private static final String DEFAULT_SSH_USER = "${user.name}";
+
+    private final Logger logger;
+
+    DomainNodeReader(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the nodes of a domain.
+     *
+     * @param domainXml The domain.xml of the domain
+     * @param domainName The name of the domain, used to tell which node is its default local node
+     * @return The nodes of the domain, in the order they are configured
+     * @throws IOException If the domain.xml could not be read or is malformed
+     */
+    List<DomainNode> read(Path domainXml, String domainName) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        List<DomainNode> nodes = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(domainXml)) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                readNodes(reader, domainName, nodes);
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException xmlStreamException) {
+            throw new IOException("Could not read " + domainXml, xmlStreamException);
+        }
+
+        logger.log(Level.FINE, "Read {0} nodes from {1}", new Object[]{nodes.size(), domainXml});
+        return nodes;
+    }
+
+    private static void readNodes(XMLStreamReader reader, String domainName, List<DomainNode> nodes)
+            throws XMLStreamException {
+        Map<String, String> node = null;
+        Map<String, String> sshConnector = null;
+        Map<String, String> sshAuth = null;
+
+        // The depth of the current element, with the root domain element at 1
+        int depth = 0;
+        boolean inNodes = false;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String name = reader.getLocalName();
+                if (depth == 1 && !"domain".equals(name)) {
+                    throw new XMLStreamException("Root element is " + name + " rather than domain");
+                } else if (depth == 2 && "nodes".equals(name)) {
+                    inNodes = true;
+                } else if (depth == 2) {
+                    skipElement(reader);
+                    depth--;
+                } else if (inNodes && depth == 3 && "node".equals(name)) {
+                    node = readAttributes(reader);
+                    sshConnector = null;
+                    sshAuth = null;
+                } else if (node != null && depth == 4 && "ssh-connector".equals(name)) {
+                    sshConnector = readAttributes(reader);
+                } else if (sshConnector != null && depth == 5 && "ssh-auth".equals(name)) {
+                    sshAuth = readAttributes(reader);
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (inNodes && depth == 3 && node != null) {
+                    nodes.add(createNode(node, sshConnector, sshAuth, domainName));
+                    node = null;
+                } else if (inNodes && depth == 2) {
+                    // Nothing else is needed, so don't read the rest of the domain
+                    return;
+                }
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Skips past the end of the element the reader is currently at the start of.
+     */
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static Map<String, String> readAttributes(XMLStreamReader reader) {
+        Map<String, String> attributes = new HashMap<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        return attributes;
+    }
+
+    private static DomainNode createNode(Map<String, String> attributes, Map<String, String> sshConnector,
+            Map<String, String> sshAuth, String domainName) {
+        String name = attributes.get("name");
+        // As with the config beans, defaults are only filled in for the elements which are there
+        Map<String, String> auth = sshAuth == null ? new HashMap<>() : sshAuth;
+        return new DomainNode(name, attributes.get("type"), attributes.get("node-host"), attributes.get("node-dir"),
+                attributes.getOrDefault("install-dir", DEFAULT_INSTALL_DIR),
+                sshConnector == null ? null : sshConnector.getOrDefault("ssh-port", DEFAULT_SSH_PORT),
+                sshAuth == null ? null : sshAuth.getOrDefault("user-name", DEFAULT_SSH_USER),
+                auth.get("password"), auth.get("keyfile"), auth.get("key-passphrase"),
+                ("localhost-" + domainName).equals(name));
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * An incremental backup of a domain, as an alternative to the full zip made by backup-domain.
+ * <p>
+ * File content is stored once per SHA-256 hash in an object store under the backups directory of the domain, and
+ * each backup is a snapshot manifest listing the hash of every file. Content which didn't change since the previous
+ * backup, which is most of it for large applications and docroot directories, isn't copied again, and files whose
+ * size and modification time match the previous snapshot aren't even read. Only the newest snapshots are kept, along
+ * with the objects they use.
+ * <p>
+ * As with backup-domain, the backups directory itself isn't backed up, and nor is the osgi-cache.
+ */
+class IncrementalDomainBackup {
+
+    static final String BACKUP_DIRECTORY = "backups";
+    static final String STORE_DIRECTORY = "upgrade";
+
+    // How many snapshots are kept, the newest first
+    private static final int SNAPSHOTS_KEPT = Math.max(1, Integer.getInteger("fish.payara.upgrade.backup.keep", 2));
+
+    private static final String HEADER = "# Payara domain backup 1";
+    private static final String SNAPSHOT_SUFFIX = ".manifest";
+    private static final String LATEST = "latest";
+
+    private static final String DIRECTORY = "D";
+    private static final String FILE = "F";
+    private static final String EXECUTABLE = "x";
+    private static final String NOT_EXECUTABLE = "-";
+
+    private static final String[] EXCLUDED = {BACKUP_DIRECTORY, "osgi-cache"};
+
+    private final Path domainDirectory;
+    private final Path store;
+    private final Path objects;
+    private final Path snapshots;
+    private final Logger logger;
+
+    /**
+     * @param domainDirectory The directory of the domain
+     * @param logger The logger to use
+     */
+    IncrementalDomainBackup(Path domainDirectory, Logger logger) {
+        this.domainDirectory = domainDirectory;
+        this.store = domainDirectory.resolve(BACKUP_DIRECTORY).resolve(STORE_DIRECTORY);
+        this.objects = store.resolve("objects");
+        this.snapshots = store.resolve("snapshots");
+        this.logger = logger;
+    }
+
+    /**
+     * Backs up the domain, making the new snapshot the one {@link #restore()} restores.
+     *
+     * @return The name of the new snapshot
+     * @throws IOException If the domain could not be backed up
+     */
+    String backup() throws IOException {
+        Map<String, Entry> previous = readPrevious();
+        Files.createDirectories(objects);
+        Files.createDirectories(snapshots);
+
+        List<Entry> entries = new ArrayList<>();
+        int[] stored = new int[1];
+        Files.walkFileTree(domainDirectory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.getParent() != null && dir.getParent().equals(domainDirectory)
+                        && isExcluded(dir.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (!dir.equals(domainDirectory)) {
+                    entries.add(new Entry(relativeName(dir)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String name = relativeName(file);
+                long modified = attrs.lastModifiedTime().toMillis();
+                Entry unchanged = previous.get(name);
+                String hash;
+                if (unchanged != null && unchanged.size == attrs.size() && unchanged.modified == modified
+                        && Files.exists(objectPath(unchanged.hash))) {
+                    hash = unchanged.hash;
+                } else {
+                    hash = store(file);
+                    stored[0]++;
+                }
+                entries.add(new Entry(name, hash, attrs.size(), modified, Files.isExecutable(file)));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        String snapshot = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        writeSnapshot(snapshot, entries);
+        writeAtomically(store.resolve(LATEST), out -> out.write(snapshot.getBytes(StandardCharsets.UTF_8)));
+        logger.log(Level.FINE, "Backed up domain {0} to snapshot {1}, storing {2} of {3} entries",
+                new Object[]{domainDirectory.getFileName(), snapshot, stored[0], entries.size()});
+
+        prune();
+        return snapshot;
+    }
+
+    /**
+     * @return Whether there is a snapshot to restore
+     */
+    boolean hasLatest() {
+        return Files.isRegularFile(store.resolve(LATEST));
+    }
+
+    /**
+     * Stops {@link #restore()} from restoring the latest snapshot, such as when a newer backup of the domain was
+     * made with backup-domain. The snapshots themselves are kept so that the next backup can reuse their content.
+     *
+     * @throws IOException If the latest snapshot could not be cleared
+     */
+    void clearLatest() throws IOException {
+        Files.deleteIfExists(store.resolve(LATEST));
+    }
+
+    /**
+     * Restores the domain from the latest snapshot. Everything in the domain other than its backups is replaced.
+     *
+     * @throws IOException If there is no snapshot to restore, or the domain could not be restored
+     */
+    void restore() throws IOException {
+        String snapshot = new String(Files.readAllBytes(store.resolve(LATEST)), StandardCharsets.UTF_8).trim();
+        List<Entry> entries = readSnapshot(snapshots.resolve(snapshot + SNAPSHOT_SUFFIX));
+
+        // Check everything needed is there before touching the domain
+        for (Entry entry : entries) {
+            if (!entry.isDirectory() && !Files.isRegularFile(objectPath(entry.hash))) {
+                throw new NoSuchFileException(objectPath(entry.hash).toString(), null,
+                        "Content of " + entry.name + " is missing from snapshot " + snapshot);
+            }
+        }
+
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(domainDirectory,
+                child -> !child.getFileName().toString().equals(BACKUP_DIRECTORY))) {
+            for (Path child : children) {
+                deleteTree(child);
+            }
+        }
+
+        for (Entry entry : entries) {
+            Path path = domainDirectory.resolve(entry.name);
+            if (entry.isDirectory()) {
+                Files.createDirectories(path);
+            } else {
+                Files.createDirectories(path.getParent());
+                Files.copy(objectPath(entry.hash), path, StandardCopyOption.REPLACE_EXISTING);
+                Files.setLastModifiedTime(path, FileTime.fromMillis(entry.modified));
+                if (entry.executable) {
+                    path.toFile().setExecutable(true);
+                }
+            }
+        }
+        logger.log(Level.FINE, "Restored domain {0} from snapshot {1}",
+                new Object[]{domainDirectory.getFileName(), snapshot});
+    }
+
+    /**
+     * @return The entries of the newest snapshot by name, or an empty map if there isn't one
+     */
+    private Map<String, Entry> readPrevious() throws IOException {
+        List<Path> existing = listSnapshots();
+        Map<String, Entry> previous = new HashMap<>();
+        if (!existing.isEmpty()) {
+            try {
+                for (Entry entry : readSnapshot(existing.get(0))) {
+                    previous.put(entry.name, entry);
+                }
+            } catch (IOException ioException) {
+                // Only means everything is read again
+                logger.log(Level.FINE, "Could not read previous snapshot " + existing.get(0), ioException);
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Stores the content of a file in the object store, if it isn't there already.
+     *
+     * @return The hash of the content
+     */
+    private String store(Path file) throws IOException {
+        Path temp = Files.createTempFile(objects, "object", ".tmp");
+        try {
+            MessageDigest digest = sha256();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                Files.copy(file, out);
+            }
+            String hash = toHex(digest.digest());
+            Path object = objectPath(hash);
+            if (!Files.exists(object)) {
+                Files.createDirectories(object.getParent());
+                try {
+                    Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException alreadyStored) {
+                    // Same content, so either copy will do
+                }
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes all but the newest {@link #SNAPSHOTS_KEPT} snapshots, and any objects which the kept snapshots don't
+     * use.
+     */
+    private void prune() throws IOException {
+        List<Path> existing = listSnapshots();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < existing.size(); i++) {
+            if (i < SNAPSHOTS_KEPT) {
+                for (Entry entry : readSnapshot(existing.get(i))) {
+                    used.add(entry.hash);
+                }
+            } else {
+                logger.log(Level.FINER, "Deleting old snapshot {0}", existing.get(i));
+                Files.delete(existing.get(i));
+            }
+        }
+
+        int deleted = 0;
+        try (Stream<Path> stored = Files.walk(objects)) {
+            for (Path object : (Iterable<Path>) stored.filter(Files::isRegularFile)::iterator) {
+                String hash = object.getParent().getFileName().toString() + object.getFileName().toString();
+                if (!used.contains(hash)) {
+                    Files.delete(object);
+                    deleted++;
+                }
+            }
+        }
+        logger.log(Level.FINER, "Deleted {0} unused objects", deleted);
+    }
+
+    /**
+     * @return The snapshot manifests, the newest first
+     */
+    private List<Path> listSnapshots() throws IOException {
+        List<Path> existing = new ArrayList<>();
+        if (Files.isDirectory(snapshots)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshots, "*" + SNAPSHOT_SUFFIX)) {
+                stream.forEach(existing::add);
+            }
+        }
+        // Snapshot names are timestamps, so sort by name
+        existing.sort(Collections.reverseOrder());
+        return existing;
+    }
+
+    private void writeSnapshot(String snapshot, List<Entry> entries) throws IOException {
+        writeAtomically(snapshots.resolve(snapshot + SNAPSHOT_SUFFIX), out -> {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Entry entry : entries) {
+                if (entry.isDirectory()) {
+                    writer.write(DIRECTORY + '\t' + entry.name + '\n');
+                } else {
+                    writer.write(FILE + '\t' + entry.hash + '\t' + entry.size + '\t' + entry.modified + '\t'
+                            + (entry.executable ? EXECUTABLE : NOT_EXECUTABLE) + '\t' + entry.name + '\n');
+                }
+            }
+            writer.flush();
+        });
+    }
+
+    private static List<Entry> readSnapshot(Path manifest) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(manifest + " is not a domain backup snapshot");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (DIRECTORY.equals(fields[0]) && fields.length == 2) {
+                    entries.add(new Entry(fields[1]));
+                } else if (FILE.equals(fields[0]) && fields.length == 6) {
+                    entries.add(new Entry(fields[5], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                            EXECUTABLE.equals(fields[4])));
+                } else {
+                    throw new IOException("Invalid line in " + manifest + ": " + line);
+                }
+            }
+        } catch (NumberFormatException numberFormatException) {
+            throw new IOException("Invalid snapshot " + manifest, numberFormatException);
+        }
+        return entries;
+    }
+
+    @FunctionalInterface
+    private interface ContentWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes a file via a temporary file, so that it is never seen half written.
+     */
+    private static void writeAtomically(Path path, ContentWriter writer) throws IOException {
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                writer.write(out);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void deleteTree(Path path) throws IOException {
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path objectPath(String hash) {
+        return objects.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private String relativeName(Path path) {
+        return domainDirectory.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static boolean isExcluded(String name) {
+        for (String excluded : EXCLUDED) {
+            if (excluded.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
+            throw new IOException(noSuchAlgorithmException);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A directory or file of a snapshot.
+     */
+    private static final class Entry {
+
+        private final String name;
+        private final String hash;
+        private final long size;
+        private final long modified;
+        private final boolean executable;
+
+        Entry(String name) {
+            this(name, null, 0, 0, false);
+        }
+
+        Entry(String name, String hash, long size, long modified, boolean executable) {
+            this.name = name;
+            this.hash = hash;
+            this.size = size;
+            this.modified = modified;
+            this.executable = executable;
+        }
+
+        boolean isDirectory() {
+            return hash == null;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A record of the files of an install, written to glassfish/config once a command has upgraded or rolled back the
+ * install. It lists every file of the move folders with its size, modification time and CRC-32, along with the
+ * version of the install.
+ * <p>
+ * The recorded CRC-32 of a file can be used instead of reading the file, as long as its size and modification time
+ * still match. Entries which don't are simply not used, so a manifest which has gone stale, e.g. because files were
+ * patched by hand, is never wrong, just less useful.
+ */
+class InstallManifest {
+
+    static final String FILE_NAME = "install-manifest.txt";
+    // The manifest of the previous install, kept alongside it for as long as the ".old" folders are
+    static final String OLD_SUFFIX = ".old";
+
+    private static final String HEADER = "# Payara install manifest 1";
+    private static final String VERSION = "V";
+    private static final String FILE = "F";
+
+    private final String version;
+    private final Map<String, Entry> entries;
+
+    private InstallManifest(String version, Map<String, Entry> entries) {
+        this.version = version;
+        this.entries = entries;
+    }
+
+    /**
+     * Records the files of the move folders of an install. The CRC-32 of a file is taken from the previous manifest
+     * or from the archive it was just extracted from where possible, and only calculated for the remaining files.
+     *
+     * @param moveFolders The folders to record, see {@link BaseUpgradeCommand#moveFolders}
+     * @param folders Gives the location of each move folder
+     * @param version The version of the install, or null if it isn't known
+     * @param previous A previous manifest of the install, or null
+     * @param extracted The entries of the archive the install was extracted from by name, see
+     * {@link #readArchive(Path, MoveFolderLayout)}, or null
+     * @param logger The logger to use
+     * @return The manifest
+     * @throws IOException If the install could not be read
+     */
+    static InstallManifest scan(String[] moveFolders, Function<String, Path> folders, String version,
+            InstallManifest previous, Map<String, ZipEntry> extracted, Logger logger) throws IOException {
+        Map<String, Entry> entries = new TreeMap<>();
+        int[] calculated = new int[1];
+        for (String folder : moveFolders) {
+            Path folderPath = folders.apply(folder);
+            if (folder.contains("osgi-cache") || !Files.exists(folderPath, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            }
+
+            Files.walkFileTree(folderPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    String relativePath = folderPath.relativize(file).toString().replace(File.separatorChar, '/');
+                    String name = name(folder, relativePath);
+                    Long crc = previous == null ? null : previous.getCrc(name, attrs);
+                    if (crc == null && extracted != null) {
+                        ZipEntry entry = extracted.get(name);
+                        if (entry != null && entry.getSize() == attrs.size() && entry.getCrc() != -1) {
+                            crc = entry.getCrc();
+                        }
+                    }
+                    if (crc == null) {
+                        crc = UnchangedFileLinker.crc32(file);
+                        calculated[0]++;
+                    }
+                    entries.put(name, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), crc));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        logger.log(Level.FINER, "Recorded {0} files of the install, calculating the CRC-32 of {1}",
+                new Object[]{entries.size(), calculated[0]});
+        return new InstallManifest(version, entries);
+    }
+
+    /**
+     * Reads the entries of a distribution archive belonging to the move folders, so that {@link #scan} doesn't have
+     * to read the files extracted from it.
+     *
+     * @param archive The zip file of the distribution
+     * @param layout Maps the archive entries onto the move folders
+     * @return The entries by the name they have in a manifest
+     * @throws IOException If the archive could not be read
+     */
+    static Map<String, ZipEntry> readArchive(Path archive, MoveFolderLayout layout) throws IOException {
+        Map<String, ZipEntry> entries = new HashMap<>();
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                MoveFolderLayout.Match match = layout.match(entry.getName());
+                if (match != null && !entry.isDirectory()) {
+                    entries.put(name(match.getMoveFolder(), match.getRelativePath()), entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a manifest. A missing or unreadable manifest isn't an error, since it can always be recreated.
+     *
+     * @param file The manifest file
+     * @param logger The logger to use
+     * @return The manifest, or null if there is none
+     */
+    static InstallManifest read(Path file, Logger logger) {
+        String version = null;
+        Map<String, Entry> entries = new TreeMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                throw new IOException(file + " is not an install manifest");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (VERSION.equals(fields[0]) && fields.length == 2) {
+                    version = fields[1];
+                } else if (FILE.equals(fields[0]) && fields.length == 5) {
+                    entries.put(fields[4], new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                            Long.parseLong(fields[1], 16)));
+                } else {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+            }
+        } catch (NoSuchFileException noSuchFileException) {
+            logger.log(Level.FINE, "No install manifest found at {0}", file.toString());
+            return null;
+        } catch (IOException | NumberFormatException exception) {
+            logger.log(Level.WARNING, "Ignoring unreadable install manifest {0}: {1}",
+                    new Object[]{file.toString(), exception.toString()});
+            return null;
+        }
+        return new InstallManifest(version, entries);
+    }
+
+    /**
+     * Writes the manifest via a temporary file, so that it is never seen half written.
+     *
+     * @param file The manifest file
+     * @throws IOException If the manifest could not be written
+     */
+    void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.write('\n');
+                if (version != null) {
+                    writer.write(VERSION + '\t' + version + '\n');
+                }
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    Entry recorded = entry.getValue();
+                    writer.write(FILE + '\t' + String.format("%08x", recorded.crc) + '\t' + recorded.size + '\t'
+                            + recorded.modified + '\t' + entry.getKey() + '\n');
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return The version of the install, or null if it isn't known
+     */
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The number of recorded files
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the recorded CRC-32 of a file, provided the file hasn't changed since it was recorded.
+     *
+     * @param name The name of the file, see {@link #name(String, String)}
+     * @param attributes The current attributes of the file
+     * @return The CRC-32 of the file, or null if it wasn't recorded or its size or modification time changed
+     */
+    Long getCrc(String name, BasicFileAttributes attributes) {
+        Entry entry = entries.get(name);
+        if (entry == null || entry.size != attributes.size()
+                || entry.modified != attributes.lastModifiedTime().toMillis()) {
+            return null;
+        }
+        return entry.crc;
+    }
+
+    /**
+     * @param moveFolder One of the move folders
+     * @param relativePath The path of a file relative to the move folder, using '/' separators
+     * @return The name of the file in a manifest, e.g. modules/web-core.jar or ../mq/lib/imq.jar
+     */
+    static String name(String moveFolder, String relativePath) {
+        String folder = moveFolder.replace(File.separatorChar, '/');
+        return relativePath.isEmpty() ? folder : folder + '/' + relativePath;
+    }
+
+    /**
+     * A file of the manifest.
+     */
+    private static final class Entry {
+
+        private final long size;
+        private final long modified;
+        private final long crc;
+
+        Entry(long size, long modified, long crc) {
+            this.size = size;
+            this.modified = modified;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Maps the entries of a distribution archive onto the folders moved by the upgrade, see
+ * {@link BaseUpgradeCommand#moveFolders}. A move folder such as {@code modules} or {@code ../mq} is relative to the
+ * glassfish directory, so it corresponds to archive entries under {@code payara<major>/glassfish/modules} and
+ * {@code payara<major>/mq} respectively.
+ */
+class MoveFolderLayout {
+
+    private static final Pattern ROOT_DIRECTORY = Pattern.compile("payara\\d+");
+
+    // Normalised archive path below the payara<major> root directory, to the move folder it belongs to
+    private final Map<String, String> prefixes = new LinkedHashMap<>();
+
+    MoveFolderLayout(String[] moveFolders) {
+        for (String folder : moveFolders) {
+            prefixes.put(normalize("glassfish/" + folder.replace(File.separatorChar, '/')), folder);
+        }
+    }
+
+    /**
+     * Finds the move folder an archive entry belongs to.
+     *
+     * @param entryName The name of the zip entry, e.g. payara6/glassfish/modules/web-core.jar
+     * @return The move folder and the path of the entry relative to it, or null if the entry isn't used by the
+     * upgrade
+     */
+    Match match(String entryName) {
+        String path = normalize(entryName);
+        int rootEnd = path.indexOf('/');
+        if (rootEnd < 0 || !ROOT_DIRECTORY.matcher(path.substring(0, rootEnd)).matches()) {
+            return null;
+        }
+
+        String relativeToRoot = path.substring(rootEnd + 1);
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            if (relativeToRoot.equals(prefix.getKey())) {
+                return new Match(prefix.getValue(), "");
+            }
+            if (relativeToRoot.startsWith(prefix.getKey() + "/")) {
+                return new Match(prefix.getValue(), relativeToRoot.substring(prefix.getKey().length() + 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves '.' and '..' segments and strips leading and trailing separators. Separators are always '/', as in zip
+     * entry names, regardless of the platform.
+     */
+    private static String normalize(String path) {
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                // Entries climbing out of the archive root are never part of a move folder
+                if (segments.pollLast() == null) {
+                    return "";
+                }
+                continue;
+            }
+            segments.addLast(segment);
+        }
+        return String.join("/", segments);
+    }
+
+    /**
+     * An archive entry found to be part of a move folder.
+     */
+    static class Match {
+
+        private final String moveFolder;
+        private final String relativePath;
+
+        Match(String moveFolder, String relativePath) {
+            this.moveFolder = moveFolder;
+            this.relativePath = relativePath;
+        }
+
+        /**
+         * @return The move folder, as it appears in {@link BaseUpgradeCommand#moveFolders}
+         */
+        String getMoveFolder() {
+            return moveFolder;
+        }
+
+        /**
+         * @return The path of the entry relative to the move folder using '/' separators, or an empty String if the
+         * entry is the move folder itself
+         */
+        String getRelativePath() {
+            return relativePath;
+        }
+    }
+}
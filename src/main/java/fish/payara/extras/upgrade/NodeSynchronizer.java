@@ -0,0 +1,290 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Brings the install of a remote node up to date with the local install by only transferring the files which
+ * differ, rather than the whole install as install-node-ssh does.
+ * <p>
+ * The remote install is listed with cksum, the files which are missing or differ are sent as a single gzipped tar
+ * stream, and extracted on the fly by the remote tar. As with install-node-ssh, files which only exist remotely
+ * are left alone, and the domains and nodes directories aren't touched.
+ * <p>
+ * The checksums of the local install are computed once and reused for every node synchronised, so a single instance
+ * should be shared by all the nodes of a command.
+ */
+class NodeSynchronizer {
+
+    // Directories of an install which belong to it alone rather than the distribution
+    private static final String[] EXCLUDED = {"glassfish/domains", "glassfish/nodes"};
+
+    private final Path localInstall;
+    private final long timeoutMillis;
+    private final Logger logger;
+
+    // Computed by the first sync, the local install doesn't change while the nodes are brought up to date
+    private Map<String, String> localManifest;
+
+    /**
+     * @param localInstall The local install directory, the one containing the glassfish directory
+     * @param timeoutMillis How long each remote command may take
+     * @param logger The logger to use
+     */
+    NodeSynchronizer(Path localInstall, long timeoutMillis, Logger logger) {
+        this.localInstall = localInstall;
+        this.timeoutMillis = timeoutMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Synchronises a remote install with the local one.
+     *
+     * @param shell The shell of the remote host
+     * @param remoteInstall The remote install directory
+     * @return The number of files transferred
+     * @throws IOException If the remote install could not be listed or updated
+     */
+    int sync(RemoteShell shell, String remoteInstall) throws IOException {
+        Map<String, String> remoteManifest = readRemoteManifest(shell, remoteInstall);
+        logger.log(Level.FINE, "Remote install {0} has {1} files",
+                new Object[]{remoteInstall, remoteManifest.size()});
+
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> file : getLocalManifest().entrySet()) {
+            if (!file.getValue().equals(remoteManifest.get(file.getKey()))) {
+                changed.add(file.getKey());
+            }
+        }
+
+        if (changed.isEmpty()) {
+            logger.log(Level.FINE, "Remote install {0} is already up to date", remoteInstall);
+            return 0;
+        }
+
+        logger.log(Level.FINE, "Transferring {0} changed files to {1}", new Object[]{changed.size(), remoteInstall});
+        run(shell, "mkdir -p " + RemoteShell.quote(remoteInstall) + " && cd " + RemoteShell.quote(remoteInstall)
+                + " && gzip -dc | tar xf -", out -> {
+            try (TarWriter tar = new TarWriter(new GZIPOutputStream(new BufferedOutputStream(out), 64 * 1024))) {
+                for (String name : changed) {
+                    Path file = localInstall.resolve(name);
+                    logger.log(Level.FINEST, "Transferring {0}", name);
+                    tar.addFile(name, file, Files.isExecutable(file));
+                }
+            }
+        });
+        return changed.size();
+    }
+
+    /**
+     * @return The checksum of each remote file by its path relative to the install, in the form "crc size"
+     */
+    private Map<String, String> readRemoteManifest(RemoteShell shell, String remoteInstall) throws IOException {
+        StringBuilder prune = new StringBuilder();
+        for (String excluded : EXCLUDED) {
+            prune.append(prune.length() == 0 ? "" : " -o ").append("-path ./").append(excluded);
+        }
+
+        // An install which doesn't exist yet simply has no files
+        String output = run(shell, "cd " + RemoteShell.quote(remoteInstall) + " 2>/dev/null || exit 0; "
+                + "find . \\( " + prune + " \\) -prune -o -type f -exec cksum {} +", null);
+
+        Map<String, String> manifest = new HashMap<>();
+        for (String line : output.split("\n")) {
+            String[] fields = line.split(" ", 3);
+            if (fields.length == 3 && fields[2].startsWith("./")) {
+                manifest.put(fields[2].substring(2), fields[0] + " " + fields[1]);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * @return The checksum of each local file by its path relative to the install, in the same form as the remote ones
+     */
+    private synchronized Map<String, String> getLocalManifest() throws IOException {
+        if (localManifest == null) {
+            Map<String, String> manifest = new TreeMap<>();
+            for (Map.Entry<String, Path> file : listLocalFiles().entrySet()) {
+                manifest.put(file.getKey(), checksum(file.getValue()));
+            }
+            logger.log(Level.FINE, "Local install {0} has {1} files",
+                    new Object[]{localInstall.toString(), manifest.size()});
+            localManifest = manifest;
+        }
+        return localManifest;
+    }
+
+    /**
+     * @return The files of the local install by their path relative to it, using '/' as the separator
+     */
+    private Map<String, Path> listLocalFiles() throws IOException {
+        Map<String, Path> files = new TreeMap<>();
+        Files.walkFileTree(localInstall, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = relativeName(dir);
+                for (String excluded : EXCLUDED) {
+                    if (name.equals(excluded)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                // Left behind by upgrades and rollbacks, and never part of an install
+                if (name.endsWith(".old") || name.endsWith(".new") || name.endsWith(".upgrade-trash")
+                        || name.endsWith(ScratchArea.DEFAULT_DIRECTORY_NAME)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = relativeName(file);
+                if (attrs.isRegularFile() && !name.endsWith(".old") && !name.endsWith(".new")) {
+                    files.put(name, file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private String relativeName(Path path) {
+        return localInstall.relativize(path).toString().replace('\\', '/');
+    }
+
+    private static String checksum(Path file) throws IOException {
+        return PosixChecksum.of(file) + " " + Files.size(file);
+    }
+
+    @FunctionalInterface
+    private interface InputWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Runs a remote command, giving it the input from the writer if there is one.
+     *
+     * @return The standard output of the command
+     */
+    private String run(RemoteShell shell, String command, InputWriter inputWriter) throws IOException {
+        logger.log(Level.FINER, "Running remote command: {0}", command);
+        Process process = shell.start(command);
+        CompletableFuture<byte[]> stdout = readAsync(process.getInputStream());
+        CompletableFuture<byte[]> stderr = readAsync(process.getErrorStream());
+
+        try {
+            try (OutputStream in = process.getOutputStream()) {
+                if (inputWriter != null) {
+                    inputWriter.write(in);
+                }
+            }
+
+            if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Remote command timed out: " + command);
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("Remote command failed with exit code " + process.exitValue() + ": "
+                        + new String(stderr.join(), StandardCharsets.UTF_8).trim());
+            }
+            return new String(stdout.join(), StandardCharsets.UTF_8);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running remote command", interruptedException);
+        } catch (IOException ioException) {
+            // Include why the remote side stopped reading, if it did
+            if (!process.isAlive() && process.exitValue() != 0) {
+                String error = new String(stderr.join(), StandardCharsets.UTF_8).trim();
+                if (!error.isEmpty() && !ioException.getMessage().contains(error)) {
+                    throw new IOException(ioException.getMessage() + ": " + error, ioException);
+                }
+            }
+            throw ioException;
+        } finally {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Reads a stream on a thread of its own, so a command can never block on a full pipe. The common pool isn't
+     * used since several nodes may be synchronised at once, and blocked readers could starve it.
+     */
+    private static CompletableFuture<byte[]> readAsync(InputStream in) {
+        CompletableFuture<byte[]> content = new CompletableFuture<>();
+        Thread reader = new Thread(() -> {
+            try (InputStream stream = in) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                content.complete(out.toByteArray());
+            } catch (IOException ioException) {
+                content.completeExceptionally(new UncheckedIOException(ioException));
+            }
+        }, "node-sync-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return content;
+    }
+}
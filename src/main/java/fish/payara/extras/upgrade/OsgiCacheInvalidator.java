@@ -0,0 +1,239 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Removes only the bundles whose module changed from an osgi-cache, rather than the whole cache, so that an upgrade
+ * which only changes a few modules keeps the rest of the cache.
+ * <p>
+ * The old and new modules directories are compared by size and CRC-32, and each bundle of the Felix cache whose
+ * location is a module which changed or was removed is deleted. Felix installs those modules again on the next start,
+ * as it does every module when there is no cache. If the Felix framework itself changed, the format of the cache may
+ * have too, so the cache can't be kept at all.
+ */
+class OsgiCacheInvalidator {
+
+    static final String FELIX_JAR = "felix/bin/felix.jar";
+
+    // The system bundle, which isn't a module
+    private static final String SYSTEM_BUNDLE = "bundle0";
+
+    private final Path modulesDirectory;
+    private final Function<String, Path> oldFolders;
+    private final Function<String, Path> newFolders;
+    private final Logger logger;
+
+    private Set<Path> changedModules;
+
+    /**
+     * @param modulesDirectory Where the modules directory is once the upgrade is applied, which is where the bundle
+     *                         locations of the cache point
+     * @param oldFolders Gives where a move folder of the old version is
+     * @param newFolders Gives where a move folder of the new version is
+     * @param logger The logger to use
+     */
+    OsgiCacheInvalidator(Path modulesDirectory, Function<String, Path> oldFolders, Function<String, Path> newFolders,
+            Logger logger) {
+        this.modulesDirectory = modulesDirectory;
+        this.oldFolders = oldFolders;
+        this.newFolders = newFolders;
+        this.logger = logger;
+    }
+
+    /**
+     * @return Whether caches of the old version can be kept, which they can't if the OSGi framework changed
+     * @throws IOException If the framework could not be compared
+     */
+    boolean isCacheCompatible() throws IOException {
+        Path oldFelix = oldFolders.apply("osgi").resolve(FELIX_JAR);
+        Path newFelix = newFolders.apply("osgi").resolve(FELIX_JAR);
+        if (!Files.isRegularFile(oldFelix) || !Files.isRegularFile(newFelix)) {
+            return false;
+        }
+        return isSame(oldFelix, newFelix);
+    }
+
+    /**
+     * Deletes the bundles whose module changed from a cache.
+     *
+     * @param osgiCache The osgi-cache directory
+     * @return How many bundles were deleted
+     * @throws IOException If the cache could not be read, or a bundle could not be deleted
+     */
+    int invalidate(Path osgiCache) throws IOException {
+        Path felixCache = osgiCache.resolve("felix");
+        if (!Files.isDirectory(felixCache)) {
+            return 0;
+        }
+
+        Set<Path> changed = getChangedModules();
+        int invalidated = 0;
+        try (DirectoryStream<Path> bundles = Files.newDirectoryStream(felixCache, "bundle*")) {
+            for (Path bundle : bundles) {
+                if (!Files.isDirectory(bundle) || bundle.getFileName().toString().equals(SYSTEM_BUNDLE)) {
+                    continue;
+                }
+                String location = readLocation(bundle);
+                if (location == null || isChanged(location, changed)) {
+                    logger.log(Level.FINER, "Invalidating cached bundle {0} with location {1}",
+                            new Object[]{bundle, location});
+                    deleteTree(bundle);
+                    invalidated++;
+                }
+            }
+        }
+        logger.log(Level.FINE, "Invalidated {0} bundles of {1}", new Object[]{invalidated, osgiCache});
+        return invalidated;
+    }
+
+    /**
+     * @return The old modules which are different or missing in the new version, as relative paths
+     */
+    private synchronized Set<Path> getChangedModules() throws IOException {
+        if (changedModules == null) {
+            Path oldModules = oldFolders.apply("modules");
+            Path newModules = newFolders.apply("modules");
+            List<Path> jars;
+            try (Stream<Path> files = Files.walk(oldModules)) {
+                jars = files.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+
+            Set<Path> changed = new HashSet<>();
+            for (Path jar : jars) {
+                Path relative = oldModules.relativize(jar);
+                Path newJar = newModules.resolve(relative.toString());
+                if (!Files.isRegularFile(newJar) || !isSame(jar, newJar)) {
+                    changed.add(relative);
+                }
+            }
+            logger.log(Level.FINE, "{0} of {1} modules changed", new Object[]{changed.size(), jars.size()});
+            changedModules = changed;
+        }
+        return changedModules;
+    }
+
+    /**
+     * @return Whether a bundle location is a module which changed. Locations which can't be understood count as
+     * changed, to be safe.
+     */
+    private boolean isChanged(String location, Set<Path> changed) {
+        String uri = location.startsWith("reference:") ? location.substring("reference:".length()) : location;
+        Path path;
+        try {
+            path = Paths.get(URI.create(uri)).normalize();
+        } catch (IllegalArgumentException | UnsupportedOperationException | FileSystemNotFoundException
+                invalidLocation) {
+            return true;
+        }
+
+        // Bundles from outside of the modules, such as those deployed to the domain, aren't affected by the upgrade
+        if (!path.startsWith(modulesDirectory)) {
+            return false;
+        }
+        return changed.contains(modulesDirectory.relativize(path));
+    }
+
+    /**
+     * Reads the location of a cached bundle, from the bundle.info file of newer versions of Felix or the
+     * bundle.location file of older ones.
+     *
+     * @return The location, or null if it could not be found
+     */
+    private static String readLocation(Path bundle) throws IOException {
+        Path info = bundle.resolve("bundle.info");
+        if (Files.isRegularFile(info)) {
+            // The bundle ID, followed by the location
+            List<String> lines = Files.readAllLines(info, StandardCharsets.UTF_8);
+            return lines.size() > 1 ? lines.get(1).trim() : null;
+        }
+        Path location = bundle.resolve("bundle.location");
+        if (Files.isRegularFile(location)) {
+            return new String(Files.readAllBytes(location), StandardCharsets.UTF_8).trim();
+        }
+        return null;
+    }
+
+    private static boolean isSame(Path oldFile, Path newFile) throws IOException {
+        if (Files.isSameFile(oldFile, newFile)) {
+            return true;
+        }
+        return Files.size(oldFile) == Files.size(newFile)
+                && UnchangedFileLinker.crc32(oldFile) == UnchangedFileLinker.crc32(newFile);
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import com.sun.enterprise.universal.process.ProcessManager;
+import com.sun.enterprise.universal.process.ProcessManagerException;
+import com.sun.enterprise.util.SystemPropertyConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates an osgi-cache for the current install by creating a throwaway domain on free ports, starting it so that
+ * the OSGi framework resolves every module, and stopping it again. The cache can then be copied into the real
+ * domains so that their first start after an upgrade doesn't have to resolve the modules itself.
+ * <p>
+ * The cache records the absolute location of each module, so it is only valid for an install at the same path.
+ */
+class OsgiCacheWarmer {
+
+    static final String DOMAIN_NAME = "upgrade-warmup";
+
+    // A domain uses the ports from its port base up to 100 above it
+    private static final int PORT_RANGE = 100;
+    private static final int PORT_BASE_ATTEMPTS = 20;
+
+    private final String glassfishDir;
+    private final int timeoutMillis;
+    private final Logger logger;
+
+    /**
+     * @param glassfishDir The glassfish directory of the install to generate the cache for
+     * @param timeoutMillis How long each asadmin command may take
+     * @param logger The logger to use
+     */
+    OsgiCacheWarmer(String glassfishDir, int timeoutMillis, Logger logger) {
+        this.glassfishDir = glassfishDir;
+        this.timeoutMillis = timeoutMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Generates the cache.
+     *
+     * @param workDirectory An empty directory to create the throwaway domain in
+     * @return The osgi-cache directory of the throwaway domain
+     * @throws IOException If the domain could not be created or started
+     */
+    Path warm(Path workDirectory) throws IOException {
+        String domainDir = workDirectory.toString();
+        asadmin("create-domain", "--domaindir", domainDir, "--nopassword", "--portbase",
+                Integer.toString(findFreePortBase()), DOMAIN_NAME);
+        boolean started = false;
+        try {
+            logger.log(Level.INFO, "Starting throwaway domain to generate the osgi-cache");
+            asadmin("start-domain", "--domaindir", domainDir, DOMAIN_NAME);
+            started = true;
+        } finally {
+            // Even if starting it failed, it may have timed out while still starting
+            try {
+                asadmin("stop-domain", "--domaindir", domainDir, DOMAIN_NAME);
+            } catch (IOException ioException) {
+                logger.log(started ? Level.WARNING : Level.FINE, "Could not stop throwaway domain {0} in {1}: {2}",
+                        new Object[]{DOMAIN_NAME, domainDir, ioException.getMessage()});
+            }
+        }
+
+        Path osgiCache = workDirectory.resolve(DOMAIN_NAME).resolve("osgi-cache");
+        if (!Files.isDirectory(osgiCache)) {
+            throw new IOException("Throwaway domain did not create an osgi-cache in " + osgiCache);
+        }
+        return osgiCache;
+    }
+
+    /**
+     * Copies a generated cache into every domain which doesn't have an osgi-cache of its own. Domains which do are
+     * left alone, since their cache may already hold the bundles of their own applications.
+     *
+     * @param osgiCache The osgi-cache generated by {@link #warm(Path)}
+     * @param domaindirs The directories of the domains
+     * @return The names of the domains the cache was copied into
+     * @throws IOException If the cache could not be copied
+     */
+    List<String> copyToDomains(Path osgiCache, File[] domaindirs) throws IOException {
+        List<String> copiedTo = new ArrayList<>();
+        for (File domaindir : domaindirs) {
+            Path domainOsgiCache = domaindir.toPath().resolve("osgi-cache");
+            if (Files.exists(domainOsgiCache)) {
+                logger.log(Level.FINE, "Domain {0} already has an osgi-cache, skipping", domaindir.getName());
+                continue;
+            }
+            logger.log(Level.FINE, "Copying generated osgi-cache to domain {0}", domaindir.getName());
+            new ParallelTreeCopier(logger).copy(osgiCache, domainOsgiCache);
+            copiedTo.add(domaindir.getName());
+        }
+        return copiedTo;
+    }
+
+    private void asadmin(String... arguments) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(SystemPropertyConstants.getAdminScriptLocation(glassfishDir));
+        command.add("--interactive=false");
+        command.addAll(Arrays.asList(arguments));
+
+        ProcessManager processManager = new ProcessManager(command);
+        processManager.setTimeoutMsec(timeoutMillis);
+        processManager.setEcho(false);
+
+        logger.log(Level.FINE, "Executing command: {0}", command);
+        int exitCode;
+        try {
+            exitCode = processManager.execute();
+        } catch (ProcessManagerException processManagerException) {
+            throw new IOException("Error executing " + arguments[0], processManagerException);
+        }
+        if (exitCode != 0) {
+            throw new IOException(arguments[0] + " exited with code " + exitCode + ": "
+                    + processManager.getStdout() + processManager.getStderr());
+        }
+    }
+
+    /**
+     * @return A port base whose whole range of ports is currently free
+     * @throws IOException If no free range was found
+     */
+    static int findFreePortBase() throws IOException {
+        for (int attempt = 0; attempt < PORT_BASE_ATTEMPTS; attempt++) {
+            int portBase = ThreadLocalRandom.current().nextInt(100, 600) * PORT_RANGE;
+            if (isFree(portBase)) {
+                return portBase;
+            }
+        }
+        throw new IOException("Could not find " + PORT_RANGE + " free ports for the throwaway domain");
+    }
+
+    private static boolean isFree(int portBase) {
+        for (int port = portBase; port < portBase + PORT_RANGE; port++) {
+            // The domain's listeners allow reuse, so a port only held by connections closing down counts as free
+            try (ServerSocket socket = new ServerSocket()) {
+                socket.setReuseAddress(true);
+                socket.bind(new InetSocketAddress(port));
+            } catch (IOException inUse) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies directory trees using a work-stealing pool. Each directory is created once before its contents are
+ * copied, subdirectories are copied as tasks of their own, and the files of a directory are split into batches so
+ * that large flat directories such as modules are spread across the pool too.
+ */
+class ParallelTreeCopier {
+
+    static final int DEFAULT_PARALLELISM = Integer.getInteger("fish.payara.upgrade.copy.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final int FILES_PER_TASK = 16;
+
+    private final int parallelism;
+    private final Logger logger;
+
+    ParallelTreeCopier(Logger logger) {
+        this(DEFAULT_PARALLELISM, logger);
+    }
+
+    ParallelTreeCopier(int parallelism, Logger logger) {
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+    }
+
+    /**
+     * Copies a file or directory tree, overwriting any files already present in the target.
+     *
+     * @param sourcePath The file or directory to copy
+     * @param targetPath Where to copy it to
+     * @throws IOException If the source doesn't exist or anything could not be copied
+     */
+    void copy(Path sourcePath, Path targetPath) throws IOException {
+        if (!Files.isDirectory(sourcePath, LinkOption.NOFOLLOW_LINKS)) {
+            // Fails with a NoSuchFileException if the source doesn't exist, as walking the tree would
+            Files.readAttributes(sourcePath, "size", LinkOption.NOFOLLOW_LINKS);
+            Files.createDirectories(targetPath.getParent());
+            copyFile(sourcePath, targetPath);
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(sourcePath, targetPath));
+        } catch (UncheckedIOException uncheckedIOException) {
+            throw uncheckedIOException.getCause();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void copyFile(Path source, Path target) throws IOException {
+        logger.log(Level.FINER, "Copying file {0}", source.toString());
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        logger.log(Level.FINEST, "Copied file {0} to {1}", new Object[]{source.toString(), target.toString()});
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private final Path source;
+        private final Path target;
+
+        DirectoryTask(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            try {
+                Files.createDirectories(target);
+
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+                    for (Path entry : entries) {
+                        Path entryTarget = target.resolve(entry.getFileName().toString());
+                        if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                            tasks.add(new DirectoryTask(entry, entryTarget));
+                        } else {
+                            files.add(entry);
+                        }
+                    }
+                }
+
+                for (int i = 0; i < files.size(); i += FILES_PER_TASK) {
+                    tasks.add(new FilesTask(files.subList(i, Math.min(i + FILES_PER_TASK, files.size())), target));
+                }
+            } catch (IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private class FilesTask extends RecursiveAction {
+
+        private final List<Path> files;
+        private final Path targetDirectory;
+
+        FilesTask(List<Path> files, Path targetDirectory) {
+            this.files = files;
+            this.targetDirectory = targetDirectory;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                for (Path file : files) {
+                    copyFile(file, targetDirectory.resolve(file.getFileName().toString()));
+                }
+            } catch (IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+        }
+    }
+}
@@ -39,6 +39,7 @@
  */
 package fish.payara.extras.upgrade;
 
+import org.glassfish.api.Param;
 import org.glassfish.api.admin.CommandException;
 import org.glassfish.hk2.api.PerLookup;
 import org.jvnet.hk2.annotations.Service;
@@ -52,6 +53,22 @@ import java.util.logging.Level;
 @PerLookup
 public class ReinstallNodesCommand extends BaseUpgradeCommand {
 
+    @Param(name = "nodeSync", optional = true, defaultValue = "false", alias = "nodesync")
+    private boolean nodeSync;
+
+    @Param(name = "keepOsgiCache", optional = true, defaultValue = "false", alias = "keeposgicache")
+    private boolean keepOsgiCache;
+
+    @Override
+    protected boolean isKeepOsgiCache() {
+        return keepOsgiCache;
+    }
+
+    @Override
+    protected boolean isNodeSync() {
+        return nodeSync;
+    }
+
     @Override
     protected int executeCommand() throws CommandException {
         try {
@@ -0,0 +1,146 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs POSIX shell commands on a remote host.
+ */
+interface RemoteShell extends AutoCloseable {
+
+    /**
+     * Starts a command on the remote host.
+     *
+     * @param command The shell command to run
+     * @return The process of the command, whose standard streams are connected to the remote command
+     * @throws IOException If the command could not be started
+     */
+    Process start(String command) throws IOException;
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Quotes a value so it is passed to a remote shell command as a single word.
+     */
+    static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Runs commands over the ssh client of the system. All commands share a single multiplexed connection, so the
+     * connection and authentication only happen once however many commands are run.
+     * <p>
+     * Only key authentication without a passphrase is supported, since ssh is run non-interactively.
+     */
+    class Ssh implements RemoteShell {
+
+        private final List<String> sshCommand = new ArrayList<>();
+        private final Path controlDirectory;
+        private final String host;
+
+        Ssh(String host, String port, String user, String keyFile) throws IOException {
+            this.host = host;
+            // The control socket path has a short length limit, so keep it in its own temp directory
+            this.controlDirectory = Files.createTempDirectory("payara-ssh");
+
+            sshCommand.add("ssh");
+            sshCommand.add("-o");
+            sshCommand.add("BatchMode=yes");
+            sshCommand.add("-o");
+            sshCommand.add("ControlMaster=auto");
+            sshCommand.add("-o");
+            sshCommand.add("ControlPath=" + controlDirectory.resolve("%C"));
+            sshCommand.add("-o");
+            sshCommand.add("ControlPersist=60");
+            if (port != null && !port.isEmpty()) {
+                sshCommand.add("-p");
+                sshCommand.add(port);
+            }
+            if (user != null && !user.isEmpty()) {
+                sshCommand.add("-l");
+                sshCommand.add(user);
+            }
+            if (keyFile != null && !keyFile.isEmpty()) {
+                sshCommand.add("-i");
+                sshCommand.add(keyFile);
+            }
+        }
+
+        @Override
+        public Process start(String command) throws IOException {
+            List<String> processCommand = new ArrayList<>(sshCommand);
+            processCommand.add(host);
+            processCommand.add(command);
+            return new ProcessBuilder(processCommand).start();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                List<String> exitCommand = new ArrayList<>(sshCommand);
+                exitCommand.add("-O");
+                exitCommand.add("exit");
+                exitCommand.add(host);
+                Process process = new ProcessBuilder(exitCommand)
+                        .redirectErrorStream(true)
+                        .start();
+                try (InputStream in = process.getInputStream(); OutputStream out = process.getOutputStream()) {
+                    while (in.read() != -1) {
+                        // Nothing to do with the output
+                    }
+                }
+                process.waitFor(10, TimeUnit.SECONDS);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } finally {
+                Files.deleteIfExists(controlDirectory);
+            }
+        }
+    }
+}
@@ -39,9 +39,8 @@
  */
 package fish.payara.extras.upgrade;
 
-import com.sun.enterprise.admin.cli.CLICommand;
 import com.sun.enterprise.util.OS;
-import com.sun.enterprise.util.StringUtils;
+import org.glassfish.api.Param;
 import org.glassfish.api.admin.CommandException;
 import org.glassfish.api.admin.CommandValidationException;
 import org.glassfish.hk2.api.PerLookup;
@@ -51,7 +50,9 @@ import org.jvnet.hk2.config.ConfigurationException;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
@@ -64,6 +65,12 @@ import java.util.logging.Level;
 @PerLookup
 public class RollbackUpgradeCommand extends BaseUpgradeCommand {
 
+    @Param(name = "backgroundCleanup", optional = true, defaultValue = "false", alias = "backgroundcleanup")
+    private boolean backgroundCleanup;
+
+    @Param(name = "nodeSync", optional = true, defaultValue = "false", alias = "nodesync")
+    private boolean nodeSync;
+
     @Override
     protected void validate() throws CommandException {
         // Perform usual validation; we don't want to skip it or alter it in anyway, we just want to add to it.
@@ -75,6 +82,16 @@ public class RollbackUpgradeCommand extends BaseUpgradeCommand {
         }
     }
 
+    @Override
+    protected boolean isNodeSync() {
+        return nodeSync;
+    }
+
+    @Override
+    protected boolean isBackgroundCleanup() {
+        return backgroundCleanup;
+    }
+
     @Override
     protected int executeCommand() {
         if (!Paths.get(glassfishDir, "modules.old").toFile().exists()) {
@@ -247,6 +264,8 @@ public class RollbackUpgradeCommand extends BaseUpgradeCommand {
                             "rollback-server command on each node, or attempt to roll them all back again using the " +
                             "reinstall-nodes command. \n{0}",
                     ce.getMessage());
+            restoreInstallManifest();
+            finishCleanup();
             return WARNING;
 
 
@@ -263,18 +282,27 @@ public class RollbackUpgradeCommand extends BaseUpgradeCommand {
             logWarning = true;
         }
 
+        restoreInstallManifest();
+
         // Final step, restore the original domain configs
         // The osgi-caches must be stored in a temp directory while the domain is restored so they are not overwritten
         try {
-            Map<String, Path> tempOsgiCacheDirs = storeOsgiCache();
-            restoreDomains();
-            restoreOsgiCache(tempOsgiCacheDirs);
+            File[] changedDomaindirs = findChangedDomains();
+            Map<String, Path> tempOsgiCacheDirs = storeOsgiCache(changedDomaindirs);
+            try {
+                restoreDomains(changedDomaindirs);
+            } finally {
+                // Otherwise a failed restore would leave them in the scratch area, to be deleted by finishCleanup
+                restoreOsgiCache(tempOsgiCacheDirs);
+            }
         } catch (CommandException | IOException ce) {
             logger.log(Level.WARNING, "Error restore-domain command! " +
                     "Please restore your domain config manually. \n{0}", ce.toString());
             logWarning = true;
         }
 
+        finishCleanup();
+
         if (logWarning) {
             return WARNING;
         }
@@ -294,12 +322,11 @@ public class RollbackUpgradeCommand extends BaseUpgradeCommand {
                 continue;
             }
 
-            // Use copy with overwrite since we don't know what state the move was in
-            CopyFileVisitor copyFileVisitor = new CopyFileVisitor(stagedPath, targetPath);
-            Files.walkFileTree(stagedPath, copyFileVisitor);
+            // Merge with overwrite since we don't know what state the move was in
+            mergeTree(stagedPath, targetPath);
         }
 
-        // Now delete
+        // Now delete anything left over
         deleteStagedInstall();
 
         logger.log(Level.INFO, "Moved staged back to current");
@@ -317,61 +344,91 @@ public class RollbackUpgradeCommand extends BaseUpgradeCommand {
                 continue;
             }
 
-            // Use copy with overwrite since we don't know what state the move was in
-            CopyFileVisitor copyFileVisitor = new CopyFileVisitor(currentPath, targetPath);
-            Files.walkFileTree(currentPath, copyFileVisitor);
+            // Merge with overwrite since we don't know what state the move was in
+            mergeTree(currentPath, targetPath);
         }
 
-        // Now delete
+        // Now delete anything left over
         deleteCurrentInstall();
 
         logger.log(Level.INFO, "Moved current install back to old");
     }
 
     private void deleteCurrentInstall() throws IOException {
-        DeleteFileVisitor visitor = new DeleteFileVisitor();
         for (String folder : moveFolders) {
             // Only attempt to delete folders which exist
             // Don't fail out if it doesn't exist, just keep going - we want to delete all we can
             Path folderPath = Paths.get(glassfishDir, folder);
             if (folderPath.toFile().exists()) {
-                Files.walkFileTree(folderPath, visitor);
+                getTreeDeleter().delete(folderPath);
             } else {
                 logger.log(Level.FINEST, "Current install file {0} does not exist, skipping", folderPath.toString());
             }
         }
     }
 
-    private void restoreDomains() throws CommandException {
+    /**
+     * Finds the domains which need restoring, skipping those whose config is the same as when they were backed up
+     * by the upgrade.
+     *
+     * @return The directories of the domains to restore
+     */
+    private File[] findChangedDomains() {
+        List<File> changed = new ArrayList<>();
+        for (File domaindir : getDomainsDir().listFiles(File::isDirectory)) {
+            if (new DomainConfigFingerprint(domaindir.toPath(), logger).isUnchanged()) {
+                logger.log(Level.INFO, "Config of domain {0} is unchanged since the upgrade, skipping restore",
+                        domaindir.getName());
+            } else {
+                changed.add(domaindir);
+            }
+        }
+        return changed.toArray(new File[0]);
+    }
+
+    private void restoreDomains(File[] domaindirs) throws CommandException {
         logger.log(Level.INFO, "Restoring domain configs");
-        File[] domaindirs = getDomainsDir().listFiles(File::isDirectory);
-        for (File domaindir : domaindirs) {
-            CLICommand restoreDomainCommand = CLICommand.getCommand(habitat, "restore-domain");
-            if (StringUtils.ok(domainDirParam)) {
-                logger.log(Level.FINE, "Executing command: {0}", "restore-domain --domaindir "
-                        + domainDirParam + " " + domaindir.getName());
-                restoreDomainCommand.execute("restore-domain", "--domaindir", domainDirParam, domaindir.getName());
+        executeForEachDomain("restore-domain", domaindirs, domaindir -> {
+            // Domains backed up with upgrade-server --incrementalbackup are restored from their latest snapshot
+            IncrementalDomainBackup incrementalBackup = new IncrementalDomainBackup(domaindir.toPath(), logger);
+            if (incrementalBackup.hasLatest()) {
+                incrementalBackup.restore();
             } else {
-                logger.log(Level.FINE, "Executing command: {0}", "restore-domain " + domaindir.getName());
-                restoreDomainCommand.execute("restore-domain", domaindir.getName());
+                executeForDomain("restore-domain", domaindir.getName());
             }
+        });
+    }
 
+    /**
+     * Puts the manifest of the install rolled back to back in place, see {@link InstallManifest}, bringing it up to
+     * date with any of its files changed since. The manifest of the version rolled back from is replaced.
+     */
+    private void restoreInstallManifest() {
+        Path oldManifest = getInstallManifestPath(true);
+        InstallManifest previous = InstallManifest.read(oldManifest, logger);
+        writeInstallManifest(previous == null ? null : previous.getVersion(), previous, null);
+        try {
+            Files.deleteIfExists(oldManifest);
+        } catch (IOException ioException) {
+            logger.log(Level.FINE, "Could not delete install manifest {0}: {1}",
+                    new Object[]{oldManifest.toString(), ioException.toString()});
         }
     }
 
     /**
      * Used to store the osgi-cache directories for each domain which has the directory so they are not lost
-     * when the restore-domain command is run.
+     * when the restore-domain command is run. They are parked in the scratch area, so storing and restoring them
+     * are renames on the same file store.
      *
+     * @param domaindirs The directories of the domains being restored
      * @return A map of domain names to the corresponding temp osgi-cache directory paths
      * @throws IOException
      */
-    private Map<String, Path> storeOsgiCache() throws IOException {
+    private Map<String, Path> storeOsgiCache(File[] domaindirs) throws IOException {
         Map<String, Path> osgiCacheDirs = new HashMap<>();
-        File[] domaindirs = getDomainsDir().listFiles(File::isDirectory);
         for (File domaindir : domaindirs) {
             if (new File(domaindir + File.separator + "osgi-cache").exists()) {
-                Path tempDirectory = Files.createTempDirectory(domaindir.getName()+"-osgi-cache");
+                Path tempDirectory = getScratchArea().createDirectory(domaindir.getName() + "-osgi-cache");
                 Path targetPath = Paths.get(domaindir + File.separator + "osgi-cache");
                 logger.log(Level.FINER, "Backing up osgi-cache {0} to temp directory {1}",
                         new Object[]{targetPath.toString(), tempDirectory.toString()});
@@ -0,0 +1,252 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A scratch directory for the temporary files of a command, such as the extracted distribution or osgi-caches
+ * parked during a rollback, which is kept on the same file store as the install. Moving trees between the scratch
+ * directory and the install is then a rename, rather than a copy through a temp directory which may be on another
+ * device or held in memory.
+ * <p>
+ * By default the scratch directory is {@value #DEFAULT_DIRECTORY_NAME} under the install, another one can be
+ * configured with the {@value #DIRECTORY_PROPERTY} system property but is only used if it is on the same file store.
+ * Each command gets its own session directory under it, which is locked while in use and deleted by
+ * {@link #clean()}. Sessions left behind by commands which didn't get to clean up are deleted by the next command.
+ */
+class ScratchArea {
+
+    static final String DEFAULT_DIRECTORY_NAME = ".upgrade-scratch";
+    static final String DIRECTORY_PROPERTY = "fish.payara.upgrade.scratch.dir";
+
+    // Space in megabytes to leave free on the file store on top of what the scratch files need
+    static final long DEFAULT_RESERVE_MB = Long.getLong("fish.payara.upgrade.scratch.reserve", 64);
+
+    private static final String SESSION_PREFIX = "session-";
+    private static final String LOCK_FILE = ".lock";
+
+    private final Path installDirectory;
+    private final Path configuredDirectory;
+    private final TreeDeleter deleter;
+    private final long reserve;
+    private final Logger logger;
+
+    private Path session;
+    private FileChannel sessionLock;
+
+    /**
+     * @param installDirectory The glassfish directory of the install
+     * @param deleter The deleter used to remove sessions, which should trash them on the same file store
+     * @param logger The logger to use
+     */
+    ScratchArea(Path installDirectory, TreeDeleter deleter, Logger logger) {
+        this(installDirectory, System.getProperty(DIRECTORY_PROPERTY) == null ? null
+                : Paths.get(System.getProperty(DIRECTORY_PROPERTY)), deleter, DEFAULT_RESERVE_MB * 1024 * 1024,
+                logger);
+    }
+
+    ScratchArea(Path installDirectory, Path configuredDirectory, TreeDeleter deleter, long reserve, Logger logger) {
+        this.installDirectory = installDirectory;
+        this.configuredDirectory = configuredDirectory;
+        this.deleter = deleter;
+        this.reserve = reserve;
+        this.logger = logger;
+    }
+
+    /**
+     * Creates a new empty directory in the scratch area.
+     *
+     * @param prefix The prefix of the directory name
+     * @return The created directory
+     * @throws IOException If the scratch area could not be set up or the directory could not be created
+     */
+    synchronized Path createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(getSession(), prefix);
+    }
+
+    /**
+     * Creates a new empty file in the scratch area.
+     *
+     * @param prefix The prefix of the file name
+     * @param suffix The suffix of the file name
+     * @return The created file
+     * @throws IOException If the scratch area could not be set up or the file could not be created
+     */
+    synchronized Path createFile(String prefix, String suffix) throws IOException {
+        return Files.createTempFile(getSession(), prefix, suffix);
+    }
+
+    /**
+     * Checks that there is enough space left in the scratch area, so that running out of space is found out before
+     * writing anything rather than halfway through.
+     *
+     * @param purpose What the space is needed for, used in the error message
+     * @param required The space needed in bytes
+     * @throws IOException If there isn't enough space, or the free space could not be determined
+     */
+    synchronized void checkFreeSpace(String purpose, long required) throws IOException {
+        Path directory = getSession();
+        long usable = Files.getFileStore(directory).getUsableSpace();
+        logger.log(Level.FINE, "Scratch area {0} has {1} MB usable, {2} needs {3} MB",
+                new Object[]{directory.toString(), toMegabytes(usable), purpose, toMegabytes(required)});
+        if (usable < required + reserve) {
+            throw new IOException(String.format("Not enough free space in %s for %s: %d MB required, %d MB usable",
+                    directory, purpose, toMegabytes(required + reserve), toMegabytes(usable)));
+        }
+    }
+
+    /**
+     * Deletes the session of this command along with everything in it. Failing to do so is only logged, since the
+     * session is deleted by the next command anyway.
+     */
+    synchronized void clean() {
+        if (session == null) {
+            return;
+        }
+
+        try {
+            sessionLock.close();
+            deleter.delete(session);
+            logger.log(Level.FINE, "Deleted scratch directory {0}", session.toString());
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not delete scratch directory {0}: {1}",
+                    new Object[]{session.toString(), ioException.toString()});
+        }
+        session = null;
+        sessionLock = null;
+    }
+
+    private Path getSession() throws IOException {
+        if (session == null) {
+            Path directory = resolveDirectory();
+            deleteLeftovers(directory);
+            Path newSession = Files.createTempDirectory(directory, SESSION_PREFIX);
+            sessionLock = FileChannel.open(newSession.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            sessionLock.lock();
+            session = newSession;
+            logger.log(Level.FINE, "Using scratch directory {0}", session.toString());
+        }
+        return session;
+    }
+
+    /**
+     * Gets the configured scratch directory if it is on the same file store as the install, otherwise the default
+     * one under the install.
+     */
+    private Path resolveDirectory() throws IOException {
+        FileStore installStore = Files.getFileStore(installDirectory);
+        if (configuredDirectory != null) {
+            Files.createDirectories(configuredDirectory);
+            if (installStore.equals(Files.getFileStore(configuredDirectory))) {
+                return configuredDirectory;
+            }
+            logger.log(Level.WARNING, "Scratch directory {0} is not on the same file store as the install, " +
+                    "using {1} instead", new Object[]{configuredDirectory.toString(),
+                    installDirectory.resolve(DEFAULT_DIRECTORY_NAME).toString()});
+        }
+
+        Path directory = installDirectory.resolve(DEFAULT_DIRECTORY_NAME);
+        Files.createDirectories(directory);
+        if (!installStore.equals(Files.getFileStore(directory))) {
+            // Only possible if something is mounted over it, which must have been done on purpose
+            logger.log(Level.WARNING, "Scratch directory {0} is not on the same file store as the install, " +
+                    "files will be copied rather than moved", directory.toString());
+        }
+        return directory;
+    }
+
+    /**
+     * Deletes the sessions of previous commands which are no longer locked by a running command.
+     */
+    private void deleteLeftovers(Path directory) throws IOException {
+        try (DirectoryStream<Path> sessions = Files.newDirectoryStream(directory, SESSION_PREFIX + "*")) {
+            for (Path leftover : sessions) {
+                if (isInUse(leftover)) {
+                    logger.log(Level.FINE, "Scratch directory {0} is in use, leaving it", leftover.toString());
+                    continue;
+                }
+                logger.log(Level.FINE, "Deleting leftover scratch directory {0}", leftover.toString());
+                try {
+                    deleter.delete(leftover);
+                } catch (IOException ioException) {
+                    // Leftovers don't get in the way of the new session, so try again next time
+                    logger.log(Level.WARNING, "Could not delete leftover scratch directory {0}: {1}",
+                            new Object[]{leftover.toString(), ioException.toString()});
+                }
+            }
+        }
+    }
+
+    private boolean isInUse(Path session) {
+        try (FileChannel channel = FileChannel.open(session.resolve(LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException overlappingFileLockException) {
+            // Locked by another scratch area of this process
+            return true;
+        } catch (IOException ioException) {
+            logger.log(Level.FINE, "Could not check whether scratch directory {0} is in use: {1}",
+                    new Object[]{session.toString(), ioException.toString()});
+            return true;
+        }
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes files to a POSIX ustar archive, which any tar can extract. Only regular files are supported.
+ */
+class TarWriter implements AutoCloseable {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Adds a file to the archive.
+     *
+     * @param name The path of the file within the archive, using '/' as the separator
+     * @param file The file to add
+     * @param executable Whether the file should be extracted as executable
+     * @throws IOException If the file could not be read or the name doesn't fit in a ustar header
+     */
+    void addFile(String name, Path file, boolean executable) throws IOException {
+        long size = Files.size(file);
+        out.write(header(name, size, executable ? 0755 : 0644, Files.getLastModifiedTime(file).toMillis() / 1000));
+
+        long written = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (written < size && (read = in.read(buffer, 0, (int) Math.min(buffer.length, size - written))) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        }
+        if (written != size) {
+            throw new IOException(file + " changed while being archived");
+        }
+        pad(size);
+    }
+
+    /**
+     * Ends the archive and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write(new byte[BLOCK_SIZE * 2]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] header(String name, long size, int mode, long modified) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+
+        // Names longer than the name field are split at a directory separator into the prefix field. The rightmost
+        // separator fitting in the prefix leaves the shortest name, so it's the only split worth trying
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] prefixBytes = new byte[0];
+        if (nameBytes.length > 100) {
+            int split = Math.min(155, nameBytes.length - 1);
+            while (split > 0 && nameBytes[split] != '/') {
+                split--;
+            }
+            if (split <= 0 || nameBytes.length - split - 1 > 100) {
+                throw new IOException("Path too long to be archived: " + name);
+            }
+            prefixBytes = Arrays.copyOfRange(nameBytes, 0, split);
+            nameBytes = Arrays.copyOfRange(nameBytes, split + 1, nameBytes.length);
+        }
+
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, modified);
+        header[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        System.arraycopy(prefixBytes, 0, header, 345, prefixBytes.length);
+
+        // The checksum is calculated with its own field filled with spaces
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int start = offset + length - 1 - digits.length();
+        Arrays.fill(header, offset, start, (byte) '0');
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, start, digits.length());
+        header[offset + length - 1] = 0;
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder != 0) {
+            out.write(new byte[BLOCK_SIZE - remainder]);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import com.sun.enterprise.util.OS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes trees of the install by first renaming them into a trash directory, which takes them out of the way
+ * instantly, and then deleting the trash in parallel. When deleting in the background, emptying the trash is left
+ * to a separate process started by {@link #finish()}, so that it can outlive the command.
+ * <p>
+ * Failing to delete something from the trash doesn't affect the install, so such failures are only logged, and
+ * anything left behind is deleted the next time the trash is emptied. A tree which can't be moved into the trash, e.g.
+ * because it is on another file store, is deleted where it is, and failing to delete all of it is an error.
+ */
+class TreeDeleter {
+
+    static final int DEFAULT_PARALLELISM = Integer.getInteger("fish.payara.upgrade.delete.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final int FILES_PER_TASK = 16;
+
+    private final Path trashDirectory;
+    private final boolean background;
+    private final int parallelism;
+    private final Logger logger;
+
+    private final AtomicInteger trashed = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /**
+     * @param trashDirectory Where to move trees to before deleting them, which should be on the same file store
+     * @param background Whether to leave emptying the trash to a background process started by {@link #finish()}
+     * @param logger The logger to use
+     */
+    TreeDeleter(Path trashDirectory, boolean background, Logger logger) {
+        this(trashDirectory, background, DEFAULT_PARALLELISM, logger);
+    }
+
+    TreeDeleter(Path trashDirectory, boolean background, int parallelism, Logger logger) {
+        this.trashDirectory = trashDirectory;
+        this.background = background;
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+    }
+
+    /**
+     * Deletes a file or directory tree. Does nothing if it doesn't exist.
+     *
+     * @param tree The file or directory to delete
+     * @throws IOException If the trash directory could not be created, or the tree couldn't be moved to the trash
+     * and could not be deleted where it is
+     */
+    void delete(Path tree) throws IOException {
+        if (!Files.exists(tree, LinkOption.NOFOLLOW_LINKS)) {
+            logger.log(Level.FINEST, "{0} does not exist, nothing to delete", tree.toString());
+            return;
+        }
+
+        Files.createDirectories(trashDirectory);
+        // Trees from different parents can share a name, e.g. h2db.old and ../h2db.old
+        Path trashedTree = trashDirectory.resolve(System.currentTimeMillis() + "-" + trashed.incrementAndGet()
+                + "-" + tree.getFileName());
+        try {
+            logger.log(Level.FINER, "Moving {0} to trash {1}", new Object[]{tree.toString(), trashedTree.toString()});
+            Files.move(tree, trashedTree, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioException) {
+            // Most likely on a different file store, so it has to be deleted where it is
+            logger.log(Level.FINER, "Could not move {0} to trash, deleting it in place: {1}",
+                    new Object[]{tree.toString(), ioException.toString()});
+            // Unlike the trash, a partially deleted tree is left where the install expects it
+            int failed = deleteNow(tree);
+            if (failed > 0) {
+                throw new IOException(String.format("Could not delete %d files under %s", failed, tree));
+            }
+            return;
+        }
+
+        if (!background) {
+            logFailures(trashedTree, deleteNow(trashedTree));
+        }
+    }
+
+    /**
+     * Empties the trash, including anything left over from previous runs. When deleting in the background, this
+     * starts a separate process to do so and returns straight away.
+     */
+    void finish() {
+        if (!Files.exists(trashDirectory, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        if (background) {
+            try {
+                ProcessBuilder processBuilder = OS.isWindows()
+                        ? new ProcessBuilder("cmd", "/c", "rd", "/s", "/q", trashDirectory.toString())
+                        : new ProcessBuilder("rm", "-rf", trashDirectory.toString());
+                File discard = new File(OS.isWindows() ? "NUL" : "/dev/null");
+                processBuilder.redirectOutput(discard).redirectError(discard).start();
+                logger.log(Level.INFO, "Deleting {0} in the background", trashDirectory.toString());
+                return;
+            } catch (IOException ioException) {
+                logger.log(Level.WARNING, "Could not start background deletion of {0}, deleting it now: {1}",
+                        new Object[]{trashDirectory.toString(), ioException.toString()});
+            }
+        }
+
+        emptyNow();
+    }
+
+    /**
+     * Empties the trash straight away, even when deleting in the background, for when it mustn't be left around
+     * until the command has completed.
+     */
+    void emptyNow() {
+        if (Files.exists(trashDirectory, LinkOption.NOFOLLOW_LINKS)) {
+            logFailures(trashDirectory, deleteNow(trashDirectory));
+        }
+    }
+
+    /**
+     * Deletes a tree in parallel, carrying on past anything which can't be deleted.
+     *
+     * @param tree The file or directory to delete
+     * @return The number of files and directories which could not be deleted
+     */
+    private int deleteNow(Path tree) {
+        failures.set(0);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            if (Files.isDirectory(tree, LinkOption.NOFOLLOW_LINKS)) {
+                pool.invoke(new DirectoryTask(tree));
+            } else {
+                deleteEntry(tree);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failures.get();
+    }
+
+    /**
+     * Anything left in the trash doesn't affect the install and is deleted the next time the trash is emptied, so
+     * failing to delete it is only logged.
+     */
+    private void logFailures(Path tree, int failed) {
+        if (failed > 0) {
+            logger.log(Level.WARNING, "Could not delete {0} files under {1}", new Object[]{failed, tree.toString()});
+        }
+    }
+
+    private void deleteEntry(Path path) {
+        try {
+            logger.log(Level.FINEST, "Deleting file {0}", path.toString());
+            Files.delete(path);
+        } catch (NoSuchFileException noSuchFileException) {
+            // Already gone, e.g. deleted by a background deletion which is still running
+        } catch (IOException ioException) {
+            logger.log(Level.FINE, "Could not delete {0}: {1}", new Object[]{path.toString(), ioException.toString()});
+            failures.incrementAndGet();
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private final Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<Path> files = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new DirectoryTask(entry));
+                    } else {
+                        files.add(entry);
+                    }
+                }
+            } catch (NoSuchFileException noSuchFileException) {
+                return;
+            } catch (IOException ioException) {
+                logger.log(Level.FINE, "Could not list {0}: {1}",
+                        new Object[]{directory.toString(), ioException.toString()});
+                failures.incrementAndGet();
+                return;
+            }
+
+            for (int i = 0; i < files.size(); i += FILES_PER_TASK) {
+                List<Path> batch = files.subList(i, Math.min(i + FILES_PER_TASK, files.size()));
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        batch.forEach(TreeDeleter.this::deleteEntry);
+                    }
+                });
+            }
+            invokeAll(tasks);
+            deleteEntry(directory);
+        }
+    }
+}
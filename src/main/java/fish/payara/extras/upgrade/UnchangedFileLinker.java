@@ -0,0 +1,229 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Used for delta upgrades: entries of the new distribution which are byte-identical to the file already installed
+ * are hard linked to that file rather than extracted, so only changed and added files actually get written.
+ * <p>
+ * A file is considered unchanged when its size matches the entry and its CRC-32 matches the one recorded in the
+ * central directory of the archive. The CRC-32 of the installed file is taken from the manifest of the install where
+ * it still applies, see {@link InstallManifest}, so only files without a valid entry have to be read.
+ * <p>
+ * A linked file shares its content with the installed one, which becomes the backup of the previous version, so
+ * changing either changes both. Only content which is never written to in place is linked: everything in the modules
+ * and osgi folders, and jars. Anything else, such as scripts and configuration, is extracted as a copy of its own.
+ */
+class UnchangedFileLinker implements ZipExtractor.ExistingContent {
+
+    // Move folders whose content is only ever replaced, never edited
+    private static final Set<String> READ_ONLY_FOLDERS = new HashSet<>(Arrays.asList("modules", "osgi"));
+
+    private final MoveFolderLayout layout;
+    private final Function<String, Path> installedFolders;
+    private final InstallManifest installedManifest;
+    private final Logger logger;
+
+    // Every installed file the new version has an entry for, whether it changed or not
+    private final Set<Path> retained = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger linked = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+
+    /**
+     * @param layout Maps the archive entries onto the move folders
+     * @param installedFolders Gives the location of the currently installed version of a move folder
+     * @param logger The logger to use
+     */
+    UnchangedFileLinker(MoveFolderLayout layout, Function<String, Path> installedFolders, Logger logger) {
+        this(layout, installedFolders, null, logger);
+    }
+
+    /**
+     * @param layout Maps the archive entries onto the move folders
+     * @param installedFolders Gives the location of the currently installed version of a move folder
+     * @param installedManifest The manifest of the currently installed version, or null if there is none
+     * @param logger The logger to use
+     */
+    UnchangedFileLinker(MoveFolderLayout layout, Function<String, Path> installedFolders,
+            InstallManifest installedManifest, Logger logger) {
+        this.layout = layout;
+        this.installedFolders = installedFolders;
+        this.installedManifest = installedManifest;
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean provide(ZipEntry entry, Path endPath) throws IOException {
+        MoveFolderLayout.Match match = layout.match(entry.getName());
+        if (match == null) {
+            written.incrementAndGet();
+            return false;
+        }
+        Path installedPath = getInstalledPath(match);
+        retained.add(installedPath);
+
+        if (!isReadOnly(match)) {
+            written.incrementAndGet();
+            return false;
+        }
+
+        if (!isUnchanged(entry, InstallManifest.name(match.getMoveFolder(), match.getRelativePath()),
+                installedPath)) {
+            logger.log(Level.FINEST, "{0} has changed, extracting it", installedPath.toString());
+            written.incrementAndGet();
+            return false;
+        }
+
+        try {
+            Files.deleteIfExists(endPath);
+            Files.createLink(endPath, installedPath);
+            linked.incrementAndGet();
+            return true;
+        } catch (IOException | UnsupportedOperationException exception) {
+            logger.log(Level.FINER, "Could not link {0} to {1}, extracting it instead: {2}",
+                    new Object[]{endPath.toString(), installedPath.toString(), exception.toString()});
+            written.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Finds the files of the installed version which the new version no longer has. Only valid once extraction has
+     * finished.
+     *
+     * @param moveFolders The folders to look through
+     * @return The installed files with no counterpart in the new version
+     * @throws IOException If the installed folders could not be read
+     */
+    List<Path> findRemoved(String[] moveFolders) throws IOException {
+        List<Path> removed = new ArrayList<>();
+        for (String folder : moveFolders) {
+            Path installedFolder = installedFolders.apply(folder);
+            if (folder.contains("osgi-cache") || !Files.exists(installedFolder, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            }
+
+            Files.walkFileTree(installedFolder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!retained.contains(file)) {
+                        removed.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        Collections.sort(removed);
+        return removed;
+    }
+
+    int getLinkedCount() {
+        return linked.get();
+    }
+
+    int getWrittenCount() {
+        return written.get();
+    }
+
+    private Path getInstalledPath(MoveFolderLayout.Match match) throws IOException {
+        Path installedFolder = installedFolders.apply(match.getMoveFolder());
+        if (match.getRelativePath().isEmpty()) {
+            return installedFolder;
+        }
+        return ZipExtractor.resolve(installedFolder, match.getRelativePath());
+    }
+
+    private static boolean isReadOnly(MoveFolderLayout.Match match) {
+        return READ_ONLY_FOLDERS.contains(match.getMoveFolder()) || match.getRelativePath().endsWith(".jar");
+    }
+
+    private boolean isUnchanged(ZipEntry entry, String name, Path installedPath) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(installedPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException noSuchFileException) {
+            return false;
+        }
+        if (!attributes.isRegularFile() || entry.getSize() != attributes.size() || entry.getCrc() == -1) {
+            return false;
+        }
+
+        Long recordedCrc = installedManifest == null ? null : installedManifest.getCrc(name, attributes);
+        if (recordedCrc != null) {
+            return recordedCrc == entry.getCrc();
+        }
+        return crc32(installedPath) == entry.getCrc();
+    }
+
+    static long crc32(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, length);
+            }
+        }
+        return crc.getValue();
+    }
+}
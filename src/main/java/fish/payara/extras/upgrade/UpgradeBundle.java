@@ -0,0 +1,306 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * An upgrade bundle holds what is needed to turn one specific version of a Payara distribution into another, rather
+ * than the whole of the new distribution.
+ * <p>
+ * A bundle is a zip file containing a manifest listing every entry of the new distribution, along with the content
+ * of the files which were added and binary patches (see {@link BinaryDelta}) for the files which changed. Files which
+ * didn't change are only listed with their CRC-32 and size, and are taken from the existing install when the
+ * distribution is rebuilt.
+ */
+class UpgradeBundle {
+
+    static final String MANIFEST = "upgrade-bundle.manifest";
+
+    private static final String HEADER = "# Payara upgrade bundle 1";
+    private static final String FILES = "files/";
+    private static final String PATCHES = "patches/";
+
+    private static final String DIRECTORY = "D";
+    private static final String UNCHANGED = "U";
+    private static final String ADDED = "A";
+    private static final String PATCHED = "P";
+
+    /**
+     * Gives the installed counterpart of an entry of the new distribution.
+     */
+    @FunctionalInterface
+    interface InstalledFiles {
+
+        /**
+         * @param entryName The name of an entry of the new distribution
+         * @return The installed file the entry was created from, or null if the entry isn't needed
+         * @throws IOException If the entry name is invalid
+         */
+        Path get(String entryName) throws IOException;
+    }
+
+    private final Logger logger;
+
+    UpgradeBundle(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Creates a bundle which upgrades the from distribution to the to distribution.
+     *
+     * @param from The zip file of the version being upgraded from
+     * @param to The zip file of the version being upgraded to
+     * @param bundle Where to write the bundle
+     * @throws IOException If either distribution could not be read or the bundle could not be written
+     */
+    void create(Path from, Path to, Path bundle) throws IOException {
+        int unchanged = 0;
+        int added = 0;
+        int patched = 0;
+        StringBuilder manifest = new StringBuilder(HEADER).append('\n');
+
+        try (ZipFile fromZip = new ZipFile(from.toFile());
+             ZipFile toZip = new ZipFile(to.toFile());
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(bundle))) {
+            // The major version is part of the root directory name, so compare entries without it
+            Map<String, ZipEntry> fromEntries = new HashMap<>();
+            fromZip.stream().forEach(entry -> fromEntries.put(stripRoot(entry.getName()), entry));
+
+            for (ZipEntry entry : Collections.list(toZip.entries())) {
+                if (entry.isDirectory()) {
+                    manifest.append(DIRECTORY).append('\t').append(entry.getName()).append('\n');
+                    continue;
+                }
+
+                ZipEntry fromEntry = fromEntries.get(stripRoot(entry.getName()));
+                if (fromEntry != null && !fromEntry.isDirectory() && fromEntry.getCrc() == entry.getCrc()
+                        && fromEntry.getSize() == entry.getSize()) {
+                    manifest.append(UNCHANGED).append('\t').append(entry.getCrc()).append('\t')
+                            .append(entry.getSize()).append('\t').append(entry.getName()).append('\n');
+                    unchanged++;
+                    continue;
+                }
+
+                byte[] content = readFully(toZip, entry);
+                if (fromEntry != null && !fromEntry.isDirectory()) {
+                    ByteArrayOutputStream patch = new ByteArrayOutputStream();
+                    BinaryDelta.diff(readFully(fromZip, fromEntry), content, patch);
+
+                    // Only worth keeping if it's smaller than the file itself
+                    if (patch.size() < content.length) {
+                        logger.log(Level.FINER, "Patching {0}: {1} bytes instead of {2}",
+                                new Object[]{entry.getName(), patch.size(), content.length});
+                        out.putNextEntry(new ZipEntry(PATCHES + entry.getName()));
+                        patch.writeTo(out);
+                        out.closeEntry();
+                        manifest.append(PATCHED).append('\t').append(fromEntry.getCrc()).append('\t')
+                                .append(entry.getCrc()).append('\t').append(entry.getSize()).append('\t')
+                                .append(entry.getName()).append('\n');
+                        patched++;
+                        continue;
+                    }
+                }
+
+                logger.log(Level.FINER, "Adding {0}", entry.getName());
+                out.putNextEntry(new ZipEntry(FILES + entry.getName()));
+                out.write(content);
+                out.closeEntry();
+                manifest.append(ADDED).append('\t').append(entry.getCrc()).append('\t')
+                        .append(entry.getSize()).append('\t').append(entry.getName()).append('\n');
+                added++;
+            }
+
+            out.putNextEntry(new ZipEntry(MANIFEST));
+            out.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+
+        logger.log(Level.FINE, "Bundle {0} holds {1} unchanged, {2} patched, and {3} added files",
+                new Object[]{bundle.toString(), unchanged, patched, added});
+    }
+
+    /**
+     * Rebuilds the new distribution from a bundle and the existing install. Entries which the installed files don't
+     * give a counterpart for are left out, so the rebuilt distribution only has to be complete as far as the
+     * upgrade is concerned.
+     *
+     * @param bundle The bundle to rebuild the distribution from
+     * @param installedFiles Gives the installed counterparts of the entries of the distribution
+     * @param distribution Where to write the rebuilt distribution zip
+     * @throws IOException If the bundle could not be read, or the install doesn't match the version the bundle
+     * upgrades from
+     */
+    void rebuild(Path bundle, InstalledFiles installedFiles, Path distribution) throws IOException {
+        try (ZipFile bundleZip = new ZipFile(bundle.toFile());
+             ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(distribution))) {
+            ZipEntry manifestEntry = bundleZip.getEntry(MANIFEST);
+            if (manifestEntry == null) {
+                throw new IOException(bundle + " is not an upgrade bundle");
+            }
+
+            try (BufferedReader manifest = new BufferedReader(new InputStreamReader(
+                    bundleZip.getInputStream(manifestEntry), StandardCharsets.UTF_8))) {
+                if (!HEADER.equals(manifest.readLine())) {
+                    throw new IOException(bundle + " is not a supported upgrade bundle");
+                }
+
+                String line;
+                while ((line = manifest.readLine()) != null) {
+                    rebuildEntry(line.split("\t"), bundleZip, installedFiles, out);
+                }
+            }
+        }
+    }
+
+    private void rebuildEntry(String[] fields, ZipFile bundleZip, InstalledFiles installedFiles,
+            ZipOutputStream out) throws IOException {
+        String name = fields[fields.length - 1];
+        switch (fields[0]) {
+            case DIRECTORY:
+                out.putNextEntry(new ZipEntry(name));
+                out.closeEntry();
+                return;
+            case ADDED:
+                out.putNextEntry(new ZipEntry(name));
+                try (InputStream in = getBundleEntry(bundleZip, FILES + name)) {
+                    copy(in, out);
+                }
+                out.closeEntry();
+                return;
+            case UNCHANGED: {
+                Path installed = installedFiles.get(name);
+                if (installed == null) {
+                    return;
+                }
+                byte[] content = readInstalled(installed, Long.parseLong(fields[1]));
+                out.putNextEntry(new ZipEntry(name));
+                out.write(content);
+                out.closeEntry();
+                return;
+            }
+            case PATCHED: {
+                Path installed = installedFiles.get(name);
+                if (installed == null) {
+                    return;
+                }
+                byte[] content;
+                try (InputStream patch = getBundleEntry(bundleZip, PATCHES + name)) {
+                    content = BinaryDelta.apply(readInstalled(installed, Long.parseLong(fields[1])), patch);
+                }
+                if (crc32(content) != Long.parseLong(fields[2])) {
+                    throw new IOException("Patching " + installed + " did not produce the expected content of " + name);
+                }
+                logger.log(Level.FINEST, "Patched {0}", name);
+                out.putNextEntry(new ZipEntry(name));
+                out.write(content);
+                out.closeEntry();
+                return;
+            }
+            default:
+                throw new IOException("Unknown upgrade bundle manifest entry for " + name + ": " + fields[0]);
+        }
+    }
+
+    private static byte[] readInstalled(Path installed, long expectedCrc) throws IOException {
+        if (!Files.isRegularFile(installed, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Installed file " + installed + " is missing, "
+                    + "the upgrade bundle can't be applied to this install");
+        }
+        byte[] content = Files.readAllBytes(installed);
+        if (crc32(content) != expectedCrc) {
+            throw new IOException("Installed file " + installed + " does not match the version the upgrade bundle "
+                    + "was created from");
+        }
+        return content;
+    }
+
+    private static InputStream getBundleEntry(ZipFile bundleZip, String name) throws IOException {
+        ZipEntry entry = bundleZip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Upgrade bundle is missing " + name);
+        }
+        return bundleZip.getInputStream(entry);
+    }
+
+    private static byte[] readFully(ZipFile zipFile, ZipEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream((int) Math.max(entry.getSize(), 32));
+            copy(in, content);
+            return content.toByteArray();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+    }
+
+    private static long crc32(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    private static String stripRoot(String entryName) {
+        return entryName.substring(entryName.indexOf('/') + 1);
+    }
+}
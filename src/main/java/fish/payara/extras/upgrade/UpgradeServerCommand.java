@@ -44,7 +44,6 @@ import com.sun.enterprise.admin.cli.CLICommand;
 import com.sun.enterprise.universal.i18n.LocalStringsImpl;
 import com.sun.enterprise.util.JDK;
 import com.sun.enterprise.util.OS;
-import com.sun.enterprise.util.StringUtils;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.glassfish.api.ExecutionContext;
@@ -57,16 +56,17 @@ import org.glassfish.hk2.api.PerLookup;
 import org.jvnet.hk2.annotations.Service;
 import org.jvnet.hk2.config.ConfigurationException;
 
-import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
@@ -81,7 +81,7 @@ import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 /**
  * Command to upgrade Payara server to a newer version
@@ -93,9 +93,18 @@ import java.util.zip.ZipInputStream;
 public class UpgradeServerCommand extends BaseUpgradeCommand {
 
     private static final String USE_DOWNLOADED_PARAM_NAME = "useDownloaded";
+    private static final String USE_BUNDLE_PARAM_NAME = "useBundle";
     private static final String USERNAME_PARAM_NAME = "username";
     private static final String NEXUS_PASSWORD_PARAM_NAME = "nexusPassword";
     private static final String VERSION_PARAM_NAME = "version";
+    private static final String STREAM_DOWNLOAD_PARAM_NAME = "streamDownload";
+    private static final String DIRECT_EXTRACT_PARAM_NAME = "directExtract";
+    private static final String DELTA_PARAM_NAME = "delta";
+    private static final String BACKGROUND_CLEANUP_PARAM_NAME = "backgroundCleanup";
+    private static final String NODE_SYNC_PARAM_NAME = "nodeSync";
+    private static final String INCREMENTAL_BACKUP_PARAM_NAME = "incrementalBackup";
+    private static final String PREWARM_OSGI_CACHE_PARAM_NAME = "prewarmOsgiCache";
+    private static final String KEEP_OSGI_CACHE_PARAM_NAME = "keepOsgiCache";
 
     @Param(name = USERNAME_PARAM_NAME, optional = true)
     private String username;
@@ -115,15 +124,49 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
     @Param(name = USE_DOWNLOADED_PARAM_NAME, optional = true, alias = "usedownloaded")
     private File useDownloadedFile;
 
+    @Param(name = USE_BUNDLE_PARAM_NAME, optional = true, alias = "usebundle")
+    private File useBundleFile;
+
+    @Param(name = STREAM_DOWNLOAD_PARAM_NAME, optional = true, defaultValue = "false", alias = "streamdownload")
+    private boolean streamDownload;
+
+    @Param(name = DIRECT_EXTRACT_PARAM_NAME, optional = true, defaultValue = "false", alias = "directextract")
+    private boolean directExtract;
+
+    @Param(name = DELTA_PARAM_NAME, optional = true, defaultValue = "false")
+    private boolean delta;
+
+    @Param(name = BACKGROUND_CLEANUP_PARAM_NAME, optional = true, defaultValue = "false", alias = "backgroundcleanup")
+    private boolean backgroundCleanup;
+
+    @Param(name = NODE_SYNC_PARAM_NAME, optional = true, defaultValue = "false", alias = "nodesync")
+    private boolean nodeSync;
+
+    @Param(name = INCREMENTAL_BACKUP_PARAM_NAME, optional = true, defaultValue = "false", alias = "incrementalbackup")
+    private boolean incrementalBackup;
+
+    @Param(name = PREWARM_OSGI_CACHE_PARAM_NAME, optional = true, defaultValue = "false", alias = "prewarmosgicache")
+    private boolean prewarmOsgiCache;
+
+    @Param(name = KEEP_OSGI_CACHE_PARAM_NAME, optional = true, defaultValue = "false", alias = "keeposgicache")
+    private boolean keepOsgiCache;
+
     private static final String NEXUS_URL = System.getProperty("fish.payara.upgrade.repo.url",
             "https://nexus.payara.fish/repository/payara-enterprise-downloadable-artifacts/fish/payara/distributions/");
     private static final String ZIP = ".zip";
     private static final LocalStringsImpl strings = new LocalStringsImpl(CLICommand.class);
 
     private static final String PERMISSIONS = "rwxr-xr-x";
+    private static final String REMOVED_FILES_RECORD = "upgrade-removed-files.txt";
 
     private boolean isPayara6Upgrade = false;
 
+    // Set when the new version was extracted with the modes recorded in the archive, so they needn't be fixed after
+    private boolean permissionsExtracted = false;
+
+    // The manifest of the install being upgraded, if it has one
+    private InstallManifest installedManifest;
+
     @Override
     protected void prevalidate() throws CommandException {
         // Perform usual pre-validation; we don't want to skip it or alter it in anyway, we just want to add to it
@@ -132,10 +175,20 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
         // If useDownloaded is present, check it's present. If it isn't, we need to pre-validate the download parameters
         // again with optional set to false so as to mimic a "conditional optional".
         // Note that we can't use the parameter variables here since CLICommand#inject() hasn't been called yet
+        if (getOption(USE_DOWNLOADED_PARAM_NAME) != null && getOption(USE_BUNDLE_PARAM_NAME) != null) {
+            throw new CommandValidationException(String.format("--%s cannot be used together with --%s",
+                    USE_DOWNLOADED_PARAM_NAME, USE_BUNDLE_PARAM_NAME));
+        }
+
         if (getOption(USE_DOWNLOADED_PARAM_NAME) != null) {
             if (!Paths.get(getOption(USE_DOWNLOADED_PARAM_NAME)).toFile().exists()) {
                 throw new CommandValidationException("File specified does not exist: " + useDownloadedFile);
             }
+        } else if (getOption(USE_BUNDLE_PARAM_NAME) != null) {
+            if (!Paths.get(getOption(USE_BUNDLE_PARAM_NAME)).toFile().exists()) {
+                throw new CommandValidationException("File specified does not exist: "
+                        + getOption(USE_BUNDLE_PARAM_NAME));
+            }
         } else {
             if (getOption(USERNAME_PARAM_NAME) == null) {
                 prevalidateParameter(USERNAME_PARAM_NAME);
@@ -213,11 +266,64 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
                 File.separator + "glassfish" + File.separator + "config" + File.separator + "branding" + File.separator + "glassfish-version.properties");
 
         //Read the glassfish-version.properties file to extract the version components
-        List<String> versionComponents;
         try (Stream<String> glassfishVersionPropertiesFileStream = Files.lines(glassfishVersionFile)) {
+            return parsePayaraVersion(glassfishVersionPropertiesFileStream);
+        } catch (IOException ioException) {
+            throw new CommandValidationException("Unable to find glassfish-version.properties file.");
+        }
+    }
+
+    /**
+     * A method to get the Payara Version from a downloaded file without extracting it, reading the
+     * `glassfish-version.properties` file straight out of the archive.
+     *
+     * @param archive Path to the zip file of the new version.
+     * @return A string version number eg. 6.0.0
+     * @throws CommandValidationException If the glassfish-version.properties file cannot be found, read or is incorrect
+     */
+    private String getPayaraVersionFromArchive(Path archive) throws CommandValidationException {
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            //Check the zip only contains one root directory, and it's named payaraX where X is a number eg. payara6
+            Set<String> rootDirectoryNames = zipFile.stream()
+                    .map(entry -> entry.getName().split("/")[0])
+                    .collect(Collectors.toSet());
+            if (rootDirectoryNames.isEmpty()) {
+                throw new CommandValidationException(getOption(USE_DOWNLOADED_PARAM_NAME) + " is empty.");
+            }
+            String payaraDirectoryName = rootDirectoryNames.iterator().next();
+            if (rootDirectoryNames.size() != 1 || !payaraDirectoryName.matches("payara\\d+")) {
+                throw new CommandValidationException("The Payara zip provided has been modified. Please use an unmodified distribution");
+            }
+
+            ZipEntry glassfishVersionEntry = zipFile.getEntry(
+                    payaraDirectoryName + "/glassfish/config/branding/glassfish-version.properties");
+            if (glassfishVersionEntry == null) {
+                throw new CommandValidationException("Unable to find glassfish-version.properties file.");
+            }
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    zipFile.getInputStream(glassfishVersionEntry), StandardCharsets.ISO_8859_1))) {
+                return parsePayaraVersion(reader.lines());
+            }
+        } catch (IOException ioException) {
+            throw new CommandValidationException("Unable to read glassfish-version.properties file from " + archive);
+        }
+    }
+
+    /**
+     * Extracts the version from the lines of a glassfish-version.properties file.
+     *
+     * @param glassfishVersionPropertiesLines The lines of the file
+     * @return A string version number eg. 6.0.0
+     * @throws CommandValidationException If the file does not contain a valid version
+     */
+    private String parsePayaraVersion(Stream<String> glassfishVersionPropertiesLines)
+            throws CommandValidationException {
+        List<String> versionComponents;
+        try {
             //Go through each line of the file, find anything that matches the pattern, extract the numbers and add them to a list
             Pattern pattern = Pattern.compile(".*_version=([0-9]+)");
-            versionComponents = glassfishVersionPropertiesFileStream
+            versionComponents = glassfishVersionPropertiesLines
                     .map(line -> {
                         Matcher matcher = pattern.matcher(line);
                         if (matcher.find()) {
@@ -233,8 +339,6 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
                 throw new CommandValidationException("glassfish-version.properties file does not contain a valid Payara version.");
             }
             return versionComponents.get(0) + "." + versionComponents.get(1) + "." + versionComponents.get(2);
-        } catch (IOException ioException) {
-            throw new CommandValidationException("Unable to find glassfish-version.properties file.");
         } catch (IndexOutOfBoundsException | NullPointerException e) {
             throw new CommandValidationException("Unable to get Payara version from glassfish-version.properties file.");
         }
@@ -304,7 +408,28 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
             throw new CommandValidationException("Non-staged upgrades are not supported on Windows.");
         }
 
-        if (getOption(USE_DOWNLOADED_PARAM_NAME) == null) {
+        // Direct extraction reads the distribution from its central directory, so it needs the whole archive on disk
+        if (directExtract && streamDownload) {
+            throw new CommandValidationException(String.format("--%s cannot be used together with --%s",
+                    DIRECT_EXTRACT_PARAM_NAME, STREAM_DOWNLOAD_PARAM_NAME));
+        }
+
+        // Delta upgrades compare the installed files against the central directory as they're extracted
+        if (delta) {
+            if (streamDownload) {
+                throw new CommandValidationException(String.format("--%s cannot be used together with --%s",
+                        DELTA_PARAM_NAME, STREAM_DOWNLOAD_PARAM_NAME));
+            }
+            directExtract = true;
+        }
+
+        // The cache records where each module is, which for a staged upgrade isn't where it will end up
+        if (prewarmOsgiCache && stage) {
+            throw new CommandValidationException(String.format("--%s cannot be used together with --stage",
+                    PREWARM_OSGI_CACHE_PARAM_NAME));
+        }
+
+        if (getOption(USE_DOWNLOADED_PARAM_NAME) == null && getOption(USE_BUNDLE_PARAM_NAME) == null) {
             validateVersions();
         }
 
@@ -567,6 +692,21 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
         logger.log(Level.FINER, "Finished creating upgrade-tool.bat file: {0}", upgradeToolBatPath.toString());
     }
 
+    @Override
+    protected boolean isKeepOsgiCache() {
+        return keepOsgiCache;
+    }
+
+    @Override
+    protected boolean isNodeSync() {
+        return nodeSync;
+    }
+
+    @Override
+    protected boolean isBackgroundCleanup() {
+        return backgroundCleanup;
+    }
+
     @Override
     public int executeCommand() {
         String url = NEXUS_URL + distribution + "/" + version + "/" + distribution + "-" + version + ZIP;
@@ -574,60 +714,93 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
         String authBytes = "Basic " + Base64.getEncoder().encodeToString(basicAuthString.getBytes());
 
         Path unzippedDirectory = null;
+        Path downloadedFile = null;
+        Path tempFile = null;
 
         // here the upgrade starts with non-restorable changes, display warning
         logger.log(Level.WARNING, "Do not interrupt the upgrade process, do not shutdown the server or computer.");
 
         // Download and/or unzip payara distribution, aborting upgrade if this fails
         try {
-            Path tempFile = Files.createTempFile("payara", ".zip");
-
             if (useDownloadedFile != null) {
+                getScratchArea().checkFreeSpace("the copy of the distribution", Files.size(useDownloadedFile.toPath()));
+                tempFile = getScratchArea().createFile("payara", ".zip");
                 logger.log(Level.FINER, "Copying downloaded distribution {0} to temp file: {1}",
                         new Object[]{useDownloadedFile.toString(), tempFile.toString()});
                 Files.copy(useDownloadedFile.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
                 logger.log(Level.FINEST, "Copied downloaded distribution {0} to temp file: {1}",
                         new Object[]{useDownloadedFile.toString(), tempFile.toString()});
+            } else if (useBundleFile != null) {
+                tempFile = getScratchArea().createFile("payara", ".zip");
+                logger.log(Level.INFO, "Rebuilding new Payara version from upgrade bundle...");
+                logger.log(Level.FINE, "Rebuilding distribution from upgrade bundle {0} into temp file: {1}",
+                        new Object[]{useBundleFile.toString(), tempFile.toString()});
+                rebuildFromBundle(useBundleFile.toPath(), tempFile);
+                logger.log(Level.FINEST, "Rebuilt distribution from upgrade bundle {0} into temp file: {1}",
+                        new Object[]{useBundleFile.toString(), tempFile.toString()});
             } else {
-                logger.log(Level.INFO, "Downloading new Payara version...");
-                logger.log(Level.FINE, "Downloading from {0}", url);
-                HttpURLConnection connection = getConnection(url);
-                connection.setRequestProperty("Authorization", authBytes);
-
-                int code = connection.getResponseCode();
-                if (code != 200) {
-                    if (code == 404) {
-                        logger.log(Level.SEVERE, "The version indicated is incorrect, please set correct version and try again");
-                        throw new CommandValidationException("Payara version not found");
+                // Check the local cache first, another install may already have been upgraded to this version
+                DistributionCache cache = new DistributionCache(logger);
+                tempFile = getCachedDistribution(cache);
+
+                if (tempFile == null) {
+                    logger.log(Level.INFO, "Downloading new Payara version...");
+                    logger.log(Level.FINE, "Downloading from {0}", url);
+                    DistributionDownloader downloader =
+                            new DistributionDownloader(this::getConnection, authBytes, logger);
+
+                    if (streamDownload) {
+                        // Extract the entries as they come off the connection rather than staging the whole archive
+                        // on disk first, so that extraction overlaps the download
+                        logger.log(Level.FINE, "Streaming downloaded distribution straight into extraction");
+                        unzippedDirectory = extractZipFile(new BufferedInputStream(downloader.open(url)));
+                        logger.log(Level.FINEST, "Extracted streamed distribution");
                     } else {
-                        logger.log(Level.SEVERE, "Error connecting to server: {0}", code);
-                        return ERROR;
+                        downloadedFile = getDownloadPath(cache);
+                        logger.log(Level.FINER, "Downloading distribution to file: {0}", downloadedFile);
+                        downloader.download(url, downloadedFile);
+                        logger.log(Level.FINEST, "Downloaded distribution to file: {0}", downloadedFile);
+
+                        tempFile = cacheDistribution(cache, downloadedFile);
+                        if (!tempFile.equals(downloadedFile)) {
+                            // The cache has taken ownership of the download
+                            downloadedFile = null;
+                        }
                     }
                 }
-
-                logger.log(Level.FINER, "Copying downloaded distribution to temp file: {0}", tempFile);
-                Files.copy(connection.getInputStream(), tempFile, StandardCopyOption.REPLACE_EXISTING);
-                logger.log(Level.FINEST, "Copied downloaded distribution to temp file: {0}", tempFile);
             }
 
-            FileInputStream unzipFileStream = new FileInputStream(tempFile.toFile());
-            logger.log(Level.FINE, "Extracting zip file {0}", tempFile.toString());
-            unzippedDirectory = extractZipFile(unzipFileStream);
-            logger.log(Level.FINEST, "Extracted zip file {0}", tempFile.toString());
+            // With direct extraction the archive is only extracted once the current install has been moved aside
+            if (tempFile != null && !directExtract) {
+                logger.log(Level.FINE, "Extracting zip file {0}", tempFile.toString());
+                unzippedDirectory = extractZipFile(tempFile);
+                logger.log(Level.FINEST, "Extracted zip file {0}", tempFile.toString());
+
+                // The download only needs to be kept around for resuming it, which no longer applies once extracted
+                if (downloadedFile != null) {
+                    Files.deleteIfExists(downloadedFile);
+                }
+            }
         } catch (IOException | CommandException e) {
             logger.log(Level.SEVERE, String.format("Error preparing for upgrade, aborting upgrade: %s", e));
             return ERROR;
         }
-        if (unzippedDirectory == null) {
+        if (directExtract && tempFile == null) {
+            logger.log(Level.SEVERE, "Error preparing for upgrade, aborting upgrade: could not find archive");
+            return ERROR;
+        }
+        if (unzippedDirectory == null && !directExtract) {
             logger.log(Level.SEVERE, "Error preparing for upgrade, aborting upgrade: could not extract archive");
             return ERROR;
         }
 
         //If a downloaded file is used the upgrade version isn't known and can only be determined after the download was unzipped.
-        if (useDownloadedFile != null) {
+        if (useDownloadedFile != null || useBundleFile != null) {
             try {
                 //Get the version from the downloaded file, validate it then set the version option.
-                options.add(VERSION_PARAM_NAME, getPayaraVersionFromDownload(unzippedDirectory));
+                options.add(VERSION_PARAM_NAME, directExtract
+                        ? getPayaraVersionFromArchive(tempFile)
+                        : getPayaraVersionFromDownload(unzippedDirectory));
             } catch (CommandException commandException) {
                 logger.log(Level.SEVERE, "Error getting version from provided zip, aborting upgrade: {0}", commandException.toString());
                 return ERROR;
@@ -661,10 +834,22 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
             return ERROR;
         }
 
+        installedManifest = InstallManifest.read(getInstallManifestPath(false), logger);
+
         try {
-            moveFiles(unzippedDirectory);
+            if (directExtract) {
+                extractFiles(tempFile);
 
-            if (!OS.isWindows()) {
+                if (downloadedFile != null) {
+                    Files.deleteIfExists(downloadedFile);
+                }
+            } else {
+                moveFiles(unzippedDirectory);
+            }
+
+            if (permissionsExtracted) {
+                logger.log(Level.FINE, "File permissions were set from the distribution while extracting");
+            } else if (!OS.isWindows()) {
                 fixPermissions();
             }
         } catch (IOException ex) {
@@ -682,6 +867,13 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
             return ERROR;
         }
 
+        if (keepOsgiCache) {
+            keepOsgiCaches();
+        }
+
+        // Read before reinstalling the nodes, which cleans the scratch area the archive may be in
+        Map<String, ZipEntry> extractedEntries = readExtractedEntries(tempFile);
+
         // Don't reinstall the nodes if we're staging, since we'll just be reinstalling them with the "current" version
         if (!stage) {
             try {
@@ -714,10 +906,20 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
                                 "upgrade-server command on each node, or attempt to upgrade them all again using the " +
                                 "reinstall-nodes command. \n{0}",
                         ce.getMessage());
+                recordInstallManifest(extractedEntries);
+                finishCleanup();
                 return WARNING;
             }
         }
 
+        // Only once nothing can roll the upgrade back, since rolling back merges the old caches over this one
+        if (prewarmOsgiCache) {
+            prewarmOsgiCaches();
+        }
+
+        recordInstallManifest(extractedEntries);
+        finishCleanup();
+
         if (stage) {
             logger.log(Level.INFO,
                     "Upgrade successfully staged, please run the applyStagedUpgrade script to apply the upgrade. " +
@@ -739,58 +941,253 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
         return (HttpURLConnection) nexusUrl.openConnection();
     }
 
-    private Path extractZipFile(InputStream remote) throws IOException {
-        Path tempDirectory = Files.createTempDirectory("payara-new");
+    /**
+     * Looks up the requested distribution in the local distribution cache. Failing to read the cache is not fatal,
+     * the distribution just gets downloaded again.
+     *
+     * @param cache The distribution cache
+     * @return The cached distribution archive, pinned in the scratch area, or null if it needs to be downloaded
+     */
+    private Path getCachedDistribution(DistributionCache cache) {
+        if (!cache.isEnabled()) {
+            return null;
+        }
 
-        logger.log(Level.FINER, "Extracting zip file to temp directory {0}", tempDirectory.toString());
-        try (ZipInputStream zipInput = new ZipInputStream(remote)) {
-            ZipEntry entry = zipInput.getNextEntry();
-            while (entry != null) {
-                Path endPath = tempDirectory.resolve(entry.getName());
-                if (entry.isDirectory()) {
-                    endPath.toFile().mkdirs();
-                } else {
-                    try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(endPath.toFile()))) {
-                        byte[] buffer = new byte[1024];
-                        int length;
-                        while ((length = zipInput.read(buffer)) != -1) {
-                            out.write(buffer, 0, length);
-                        }
-                        out.flush();
-                    }
-                }
-                entry = zipInput.getNextEntry();
+        try {
+            Path cachedFile = cache.get(distribution, version, getScratchArea().createFile("payara", ".zip"));
+            if (cachedFile != null) {
+                logger.log(Level.INFO, "Using cached Payara distribution {0}", cachedFile.toString());
             }
+            return cachedFile;
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not read distribution cache, downloading instead: {0}",
+                    ioException.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Adds a downloaded distribution to the local distribution cache so that upgrades of other installs to the same
+     * version don't need to download it again. Failing to do so is not fatal, the download is used as is.
+     *
+     * @param cache The distribution cache
+     * @param downloadedFile The downloaded distribution archive
+     * @return The archive to extract: the cached copy pinned in the scratch area, or the download itself if it could
+     * not be cached
+     */
+    private Path cacheDistribution(DistributionCache cache, Path downloadedFile) {
+        if (!cache.isEnabled()) {
+            return downloadedFile;
+        }
+
+        try {
+            return cache.put(distribution, version, downloadedFile, getScratchArea().createFile("payara", ".zip"));
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not add downloaded distribution to cache: {0}", ioException.toString());
+            return downloadedFile;
         }
+    }
+
+    /**
+     * Gets the file the distribution is downloaded to. This is the same for every run targeting the same distribution
+     * and version, so that an interrupted download can be resumed by running the command again. It is kept in the
+     * private download directory of the cache rather than the shared temporary directory, where anyone could plant a
+     * partial download for us to resume.
+     *
+     * @param cache The distribution cache
+     * @return The path of the file to download the distribution to
+     * @throws IOException If the download directory could not be created
+     */
+    private Path getDownloadPath(DistributionCache cache) throws IOException {
+        return cache.getDownloadDirectory().resolve(distribution + "-" + version + ZIP);
+    }
+
+    private Path extractZipFile(InputStream remote) throws IOException {
+        Path tempDirectory = getScratchArea().createDirectory("payara-new");
+
+        logger.log(Level.FINER, "Extracting zip stream to temp directory {0}", tempDirectory.toString());
+        new ZipExtractor(logger).extract(remote, selectMoveFolders(tempDirectory));
+        logger.log(Level.FINEST, "Extracted zip stream to temp directory {0}", tempDirectory.toString());
+        return tempDirectory;
+    }
+
+    private Path extractZipFile(Path archive) throws IOException {
+        Path tempDirectory = getScratchArea().createDirectory("payara-new");
+        ZipExtractor extractor = new ZipExtractor(logger);
+        ZipExtractor.EntryMapper mapper = selectMoveFolders(tempDirectory);
+        getScratchArea().checkFreeSpace("the extracted distribution", extractor.extractedSize(archive, mapper));
+
+        logger.log(Level.FINER, "Extracting zip file to temp directory {0}", tempDirectory.toString());
+        permissionsExtracted = extractor.extract(archive, mapper);
         logger.log(Level.FINEST, "Extracted zip file to temp directory {0}", tempDirectory.toString());
         return tempDirectory;
     }
 
+    /**
+     * Only the contents of the move folders are used by the upgrade, so anything else in the distribution (such as
+     * the default domain) is skipped rather than written out to be thrown away again.
+     *
+     * @param tempDirectory The directory the distribution is extracted into
+     * @return A mapper extracting only the entries of the move folders into the directory
+     */
+    private ZipExtractor.EntryMapper selectMoveFolders(Path tempDirectory) {
+        MoveFolderLayout layout = new MoveFolderLayout(moveFolders);
+        ZipExtractor.EntryMapper extractAll = ZipExtractor.into(tempDirectory);
+        return entryName -> layout.match(entryName) == null ? null : extractAll.map(entryName);
+    }
+
     private void backupDomains() throws CommandException {
         logger.log(Level.INFO, "Backing up domain configs");
-        File[] domaindirs = getDomainsDir().listFiles(File::isDirectory);
-        for (File domaindir : domaindirs) {
-            CLICommand backupDomainCommand = CLICommand.getCommand(habitat, "backup-domain");
-            if (StringUtils.ok(domainDirParam)) {
-                logger.log(Level.FINE, "Executing command: {0}", "backup-domain --domaindir "
-                        + domainDirParam + " " + domaindir.getName());
-                backupDomainCommand.execute("backup-domain", "--domaindir", domainDirParam, domaindir.getName());
+        executeForEachDomain(incrementalBackup ? "Incremental backup" : "backup-domain", domaindir -> {
+            // Lets rollback skip restoring domains whose config hasn't changed since
+            DomainConfigFingerprint fingerprint = new DomainConfigFingerprint(domaindir.toPath(), logger);
+            fingerprint.clear();
+            if (incrementalBackup) {
+                new IncrementalDomainBackup(domaindir.toPath(), logger).backup();
+            } else {
+                executeForDomain("backup-domain", domaindir.getName());
+                // Rollback restores whichever backup was made last
+                new IncrementalDomainBackup(domaindir.toPath(), logger).clearLatest();
+            }
+            fingerprint.record();
+        });
+    }
+
+    /**
+     * Gives the new version the osgi-cache of each domain, minus the bundles whose module changed, see
+     * {@link OsgiCacheInvalidator}. Domains whose cache can't be kept are left without one, as they would be
+     * without this.
+     */
+    private void keepOsgiCaches() {
+        OsgiCacheInvalidator invalidator = new OsgiCacheInvalidator(Paths.get(glassfishDir, "modules"),
+                this::getInstalledPath, this::getTargetPath, logger);
+        try {
+            if (!invalidator.isCacheCompatible()) {
+                logger.log(Level.INFO, "The OSGi framework has changed, the osgi-caches can't be kept");
+                return;
+            }
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not compare OSGi frameworks, the osgi-caches won't be kept: {0}",
+                    ioException.toString());
+            return;
+        }
+
+        for (String folder : moveFolders) {
+            if (!folder.endsWith("osgi-cache")) {
+                continue;
+            }
+            Path installedCache = getInstalledPath(folder);
+            Path targetCache = getTargetPath(folder);
+            if (!Files.isDirectory(installedCache) || Files.exists(targetCache)) {
+                continue;
+            }
+
+            try {
+                copyTree(installedCache, targetCache);
+                int invalidated = invalidator.invalidate(targetCache);
+                logger.log(Level.INFO, "Kept {0}, removing {1} changed bundles",
+                        new Object[]{folder, invalidated});
+            } catch (IOException ioException) {
+                logger.log(Level.WARNING, "Could not keep {0}: {1}", new Object[]{folder, ioException.toString()});
+                try {
+                    getTreeDeleter().delete(targetCache);
+                } catch (IOException deleteException) {
+                    logger.log(Level.WARNING, "Could not delete partially kept {0}: {1}",
+                            new Object[]{targetCache, deleteException.toString()});
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates an osgi-cache for the new version with a throwaway domain, see {@link OsgiCacheWarmer}, and copies it
+     * into each domain whose cache was cleared by the upgrade. Failing to do so doesn't fail the upgrade, since the
+     * domains generate their own cache when started anyway.
+     */
+    private void prewarmOsgiCaches() {
+        logger.log(Level.INFO, "Generating osgi-cache for the new version");
+        Path workDirectory = null;
+        try {
+            workDirectory = getScratchArea().createDirectory("payara-osgi-warmup");
+            OsgiCacheWarmer warmer = new OsgiCacheWarmer(glassfishDir, DEFAULT_TIMEOUT_MSEC, logger);
+            Path osgiCache = warmer.warm(workDirectory);
+            warmer.copyToDomains(osgiCache, getDomainsDir().listFiles(File::isDirectory));
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not generate osgi-cache, domains will generate their own when " +
+                    "started: {0}", ioException.toString());
+        } finally {
+            if (workDirectory != null) {
+                try {
+                    getTreeDeleter().delete(workDirectory);
+                } catch (IOException ioException) {
+                    logger.log(Level.WARNING, "Could not delete throwaway domain {0}: {1}",
+                            new Object[]{workDirectory, ioException.toString()});
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the manifest of the previous install alongside its ".old" folders, and records the new install in its
+     * place, see {@link InstallManifest}.
+     * <p>
+     * A staged upgrade is applied by a script which only renames the folders, so the manifests are rotated when it is
+     * staged instead. Once the script has run the ".old" manifest describes the ".old" folders, as it would after an
+     * upgrade in place, so a rollback restores the manifest of the right version. No manifest is written for the
+     * staged install, which only means the next command reads its files.
+     *
+     * @param extracted The entries of the new version by manifest name, or null if they aren't known
+     */
+    private void recordInstallManifest(Map<String, ZipEntry> extracted) {
+        Path manifest = getInstallManifestPath(false);
+        Path oldManifest = getInstallManifestPath(true);
+        try {
+            if (Files.exists(manifest)) {
+                Files.move(manifest, oldManifest, StandardCopyOption.REPLACE_EXISTING);
             } else {
-                logger.log(Level.FINE, "Executing command: {0}", "backup-domain " + domaindir.getName());
-                backupDomainCommand.execute("backup-domain", domaindir.getName());
+                Files.deleteIfExists(oldManifest);
             }
+        } catch (IOException ioException) {
+            logger.log(Level.WARNING, "Could not keep install manifest of the previous version: {0}",
+                    ioException.toString());
+        }
+
+        if (stage) {
+            logger.log(Level.FINE, "Upgrade is staged, the install manifest is written again by the next upgrade");
+            return;
+        }
+
+        writeInstallManifest(getOption(VERSION_PARAM_NAME), installedManifest, extracted);
+    }
+
+    /**
+     * The extracted files have the CRC-32 recorded for them in the archive, so they don't need to be read again when
+     * writing the install manifest.
+     *
+     * @param archive The zip file of the new version, or null if it was streamed
+     * @return The entries of the archive by manifest name, or null if they couldn't be read
+     */
+    private Map<String, ZipEntry> readExtractedEntries(Path archive) {
+        if (stage || archive == null || !Files.exists(archive)) {
+            return null;
+        }
+        try {
+            return InstallManifest.readArchive(archive, new MoveFolderLayout(moveFolders));
+        } catch (IOException ioException) {
+            logger.log(Level.FINE, "Could not read entries of {0}, reading the installed files instead: {1}",
+                    new Object[]{archive.toString(), ioException.toString()});
+            return null;
         }
     }
 
     private void cleanupExisting() throws IOException {
         logger.log(Level.FINE, "Deleting old server backup if present");
-        DeleteFileVisitor visitor = new DeleteFileVisitor();
         for (String folder : moveFolders) {
             Path folderPath = Paths.get(glassfishDir, folder + ".old");
             // Only attempt to delete folders which exist
             // Don't fail out if it doesn't exist, just keep going - we want to delete all we can
             if (folderPath.toFile().exists()) {
-                Files.walkFileTree(folderPath, visitor);
+                getTreeDeleter().delete(folderPath);
             } else {
                 logger.log(Level.FINER, "No old install directory found for {0}, skipping", folderPath.toString());
             }
@@ -800,6 +1197,23 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
     }
 
     private void moveFiles(Path newVersion) throws IOException {
+        moveCurrentToOld();
+        moveExtracted(newVersion);
+    }
+
+    /**
+     * Variant of {@link #moveFiles(Path)} which extracts the new version straight into its final location, rather
+     * than copying it there from a previously extracted directory.
+     *
+     * @param archive The zip file of the new version
+     * @throws IOException If the current install could not be moved or the new version could not be extracted
+     */
+    private void extractFiles(Path archive) throws IOException {
+        moveCurrentToOld();
+        extractIntoInstall(archive);
+    }
+
+    private void moveCurrentToOld() throws IOException {
         if (!stage) {
             logger.log(Level.FINE, "Moving files to old");
             for (String folder : moveFolders) {
@@ -828,8 +1242,6 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
             }
         }
         logger.log(Level.FINE, "Moved files to old");
-
-        moveExtracted(newVersion);
     }
 
     private void moveExtracted(Path newVersion) throws IOException {
@@ -859,10 +1271,7 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
                 }
             }
 
-            Path targetPath = Paths.get(glassfishDir, folder);
-            if (stage) {
-                targetPath = Paths.get(targetPath + ".new");
-            }
+            Path targetPath = getTargetPath(folder);
             logger.log(Level.FINER, "Moving extracted file {0} to {1}",
                     new Object[]{sourcePath.toString(), targetPath.toString()});
 
@@ -876,17 +1285,140 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
 
             // osgi-cache directory doesn't exist in a new Payara install so can't be copied and should be ignored.
             if (!folder.contains("osgi-cache")) {
-                CopyFileVisitor visitor = new CopyFileVisitor(sourcePath, targetPath);
-                Files.walkFileTree(sourcePath, visitor);
+                // The extracted files are thrown away afterwards, so simply rename them into place where possible
+                if (!renameIfSameFileStore(sourcePath, targetPath)) {
+                    copyTree(sourcePath, targetPath);
+                }
             }
         }
         logger.log(Level.FINE, "Extracted files copied");
     }
 
+    /**
+     * Extracts the move folders of the new version straight into the install, or into the staged ".new" folders,
+     * writing each file only once instead of extracting to a temp directory and copying from there.
+     *
+     * @param archive The zip file of the new version
+     * @throws IOException If an entry could not be extracted
+     */
+    private void extractIntoInstall(Path archive) throws IOException {
+        logger.log(Level.FINE, "Extracting files into install");
+
+        for (String folder : moveFolders) {
+            // Mirror moveExtracted, which creates the target of any directory in the current install even if the new
+            // version has nothing to put there (e.g. osgi-cache)
+            Path targetPath = getTargetPath(folder);
+            if (Paths.get(glassfishDir, folder).toFile().isDirectory() && !targetPath.toFile().exists()) {
+                logger.log(Level.FINER, "Target path {0} doesn't exist, creating it.", targetPath.toString());
+                Files.createDirectory(targetPath);
+            }
+        }
+
+        MoveFolderLayout layout = new MoveFolderLayout(moveFolders);
+        ZipExtractor.EntryMapper mapper = entryName -> {
+            MoveFolderLayout.Match match = layout.match(entryName);
+
+            // osgi-cache directory doesn't exist in a new Payara install so should be ignored.
+            if (match == null || match.getMoveFolder().contains("osgi-cache")) {
+                return null;
+            }
+
+            Path targetPath = getTargetPath(match.getMoveFolder());
+            if (match.getRelativePath().isEmpty()) {
+                return targetPath;
+            }
+            return ZipExtractor.resolve(targetPath, match.getRelativePath());
+        };
+
+        if (!delta) {
+            permissionsExtracted = new ZipExtractor(logger).extract(archive, mapper);
+            logger.log(Level.FINE, "Extracted files into install");
+            return;
+        }
+
+        UnchangedFileLinker linker = new UnchangedFileLinker(layout, this::getInstalledPath, installedManifest,
+                logger);
+        permissionsExtracted = new ZipExtractor(logger).extract(archive, mapper, linker);
+        logger.log(Level.INFO, "Delta upgrade wrote {0} changed or added files and linked {1} unchanged files",
+                new Object[]{linker.getWrittenCount(), linker.getLinkedCount()});
+
+        recordRemovedFiles(linker.findRemoved(moveFolders));
+        logger.log(Level.FINE, "Extracted files into install");
+    }
+
+    /**
+     * @param folder One of the move folders
+     * @return Where the currently installed version of the folder is once the current install has been moved aside
+     */
+    private Path getInstalledPath(String folder) {
+        if (stage) {
+            return Paths.get(glassfishDir, folder);
+        }
+        return Paths.get(glassfishDir, folder + ".old");
+    }
+
+    /**
+     * Writes the files of the current install which the new version no longer has to the
+     * {@value #REMOVED_FILES_RECORD} file under glassfish/config, so they can be reviewed after a delta upgrade.
+     *
+     * @param removed The installed files with no counterpart in the new version
+     * @throws IOException If the record could not be written
+     */
+    private void recordRemovedFiles(List<Path> removed) throws IOException {
+        // The config directory itself is never moved, only some of its contents
+        Path record = Paths.get(glassfishDir, "config", REMOVED_FILES_RECORD);
+        List<String> lines = new ArrayList<>();
+        for (Path file : removed) {
+            logger.log(Level.FINE, "{0} is not part of the new version", file.toString());
+            lines.add(file.toString());
+        }
+        Files.createDirectories(record.getParent());
+        Files.write(record, lines, StandardCharsets.UTF_8);
+        logger.log(Level.INFO, "{0} files are not part of the new version, see {1}",
+                new Object[]{removed.size(), record.toString()});
+    }
+
+    /**
+     * Rebuilds the distribution being upgraded to from an upgrade bundle, taking the files the bundle doesn't
+     * contain from the current install. Only the entries within the move folders are rebuilt, since nothing else
+     * of the distribution is used.
+     *
+     * @param bundle The upgrade bundle, created by the create-upgrade-bundle command
+     * @param distribution Where to write the rebuilt distribution zip
+     * @throws IOException If the bundle could not be read, or doesn't apply to the current install
+     */
+    private void rebuildFromBundle(Path bundle, Path distribution) throws IOException {
+        MoveFolderLayout layout = new MoveFolderLayout(moveFolders);
+        new UpgradeBundle(logger).rebuild(bundle, entryName -> {
+            MoveFolderLayout.Match match = layout.match(entryName);
+            if (match == null || match.getMoveFolder().contains("osgi-cache")) {
+                return null;
+            }
+
+            Path installedPath = Paths.get(glassfishDir, match.getMoveFolder());
+            if (match.getRelativePath().isEmpty()) {
+                return installedPath;
+            }
+            return ZipExtractor.resolve(installedPath, match.getRelativePath());
+        }, distribution);
+    }
+
+    /**
+     * @param folder One of the move folders
+     * @return Where the new version of the folder goes, taking staging into account
+     */
+    private Path getTargetPath(String folder) {
+        Path targetPath = Paths.get(glassfishDir, folder);
+        if (stage) {
+            targetPath = Paths.get(targetPath + ".new");
+        }
+        return targetPath;
+    }
+
     private void undoMoveFiles() throws IOException {
-        // We don't know the state of the "current" or "old" installs, so we need to do this file by file with
-        // a visitor that overwrites rather than doing it by folder with Files.move since Files.move would
-        // require us to deal with DirectoryNotEmptyExceptions
+        // We don't know the state of the "current" or "old" installs, so we need to merge them file by file,
+        // overwriting, rather than doing it by folder with a single Files.move since that would require us to deal
+        // with DirectoryNotEmptyExceptions
         logger.log(Level.FINE, "Moving old back");
         for (String folder : moveFolders) {
             try {
@@ -898,20 +1430,13 @@ public class UpgradeServerCommand extends BaseUpgradeCommand {
                     continue;
                 }
 
-                // Copy the files from the folder, overwriting any
+                // Move the files from the folder back, overwriting any, and clear out the leftover "old" install
                 Path movedFromPath = Paths.get(glassfishDir, folder);
-                CopyFileVisitor copyVisitor = new CopyFileVisitor(movedToPath, movedFromPath);
-                logger.log(Level.FINER, "Copying files from {0} to {1}",
+                logger.log(Level.FINER, "Moving files from {0} to {1}",
                         new Object[]{movedToPath.toString(), movedFromPath.toString()});
-                Files.walkFileTree(movedToPath, copyVisitor);
-                logger.log(Level.FINEST, "Copied files from {0} to {1}",
+                mergeTree(movedToPath, movedFromPath);
+                logger.log(Level.FINEST, "Moved files from {0} to {1}",
                         new Object[]{movedToPath.toString(), movedFromPath.toString()});
-
-                // Clear out the leftover "old" install
-                DeleteFileVisitor deleteVisitor = new DeleteFileVisitor();
-                logger.log(Level.FINER, "Deleting files from {0}", movedToPath.toString());
-                Files.walkFileTree(movedToPath, deleteVisitor);
-                logger.log(Level.FINEST, "Deleted files from {0}", movedToPath.toString());
             } catch (NoSuchFileException nsfe) {
                 // Don't exit out on NoSuchFileExceptions, just keep going - any NoSuchFileException is likely
                 // just a case of the file not having been moved yet.
@@ -0,0 +1,352 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts distribution archives. Archives already on disk are extracted from their central directory with entries
+ * inflated in parallel, while streamed archives can only be extracted one entry at a time as they arrive.
+ * <p>
+ * Files extracted from an archive on disk are given the Unix modes recorded for them in the archive, see
+ * {@link ZipUnixModes}. The local headers read when streaming don't record them, so streamed files get the default
+ * permissions.
+ */
+class ZipExtractor {
+
+    static final int DEFAULT_PARALLELISM = Integer.getInteger("fish.payara.upgrade.extract.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    // Each worker thread keeps one large buffer for the duration of an extraction rather than allocating per entry
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final int parallelism;
+    private final Logger logger;
+
+    /**
+     * Decides where each entry of an archive is extracted to.
+     */
+    @FunctionalInterface
+    interface EntryMapper {
+
+        /**
+         * @param entryName The name of the zip entry
+         * @return The path to extract the entry to, or null to skip the entry
+         * @throws IOException If the entry can't be mapped to a valid path
+         */
+        Path map(String entryName) throws IOException;
+    }
+
+    /**
+     * Gives the caller the chance to provide the content of an entry without it being inflated, for example by
+     * linking an identical file which is already on disk.
+     */
+    @FunctionalInterface
+    interface ExistingContent {
+
+        /**
+         * @param entry The zip entry about to be extracted
+         * @param endPath Where the entry is extracted to
+         * @return true if the file at endPath has been provided, false if the entry should be extracted
+         * @throws IOException If providing the file failed
+         */
+        boolean provide(ZipEntry entry, Path endPath) throws IOException;
+    }
+
+    ZipExtractor(Logger logger) {
+        this(DEFAULT_PARALLELISM, logger);
+    }
+
+    ZipExtractor(int parallelism, Logger logger) {
+        this.parallelism = Math.max(1, parallelism);
+        this.logger = logger;
+    }
+
+    /**
+     * Extracts an archive on disk, inflating its entries in parallel.
+     *
+     * @param archive The zip file to extract
+     * @param targetDirectory The directory to extract into
+     * @return Whether the archive recorded a Unix mode for every file, so that their permissions match it
+     * @throws IOException If the archive could not be read or an entry could not be written
+     */
+    boolean extract(Path archive, Path targetDirectory) throws IOException {
+        return extract(archive, into(targetDirectory));
+    }
+
+    /**
+     * Extracts the entries of an archive on disk selected by the given mapper, inflating them in parallel.
+     *
+     * @param archive The zip file to extract
+     * @param mapper Maps each entry to where it should be extracted to
+     * @return Whether the archive recorded a Unix mode for every file, so that their permissions match it
+     * @throws IOException If the archive could not be read or an entry could not be written
+     */
+    boolean extract(Path archive, EntryMapper mapper) throws IOException {
+        return extract(archive, mapper, (entry, endPath) -> false);
+    }
+
+    /**
+     * Extracts the entries of an archive on disk selected by the given mapper, inflating them in parallel unless
+     * their content can be provided from elsewhere. Provided files keep their own mode, since changing it could
+     * affect the file they were provided from.
+     *
+     * @param archive The zip file to extract
+     * @param mapper Maps each entry to where it should be extracted to
+     * @param existingContent Provides the content of entries which don't need to be inflated
+     * @return Whether the archive recorded a Unix mode for every file, so that their permissions match it
+     * @throws IOException If the archive could not be read or an entry could not be written
+     */
+    boolean extract(Path archive, EntryMapper mapper, ExistingContent existingContent) throws IOException {
+        Map<String, Integer> modes = readModes(archive);
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            List<ZipEntry> files = new ArrayList<>();
+            Map<ZipEntry, Path> endPaths = new HashMap<>();
+            Set<Path> directories = new LinkedHashSet<>();
+            int skipped = 0;
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path endPath = mapper.map(entry.getName());
+                if (endPath == null) {
+                    skipped++;
+                } else if (entry.isDirectory()) {
+                    directories.add(endPath);
+                } else {
+                    directories.add(endPath.getParent());
+                    files.add(entry);
+                    endPaths.put(entry, endPath);
+                }
+            }
+
+            // Create the whole directory structure up front so the workers only ever write files
+            for (Path directory : directories) {
+                Files.createDirectories(directory);
+            }
+
+            // Start the largest entries first so one big jar doesn't end up holding up the whole extraction
+            files.sort(Comparator.comparingLong(ZipEntry::getSize).reversed());
+
+            List<Callable<Void>> tasks = new ArrayList<>(files.size());
+            for (ZipEntry entry : files) {
+                tasks.add(() -> {
+                    if (existingContent.provide(entry, endPaths.get(entry))) {
+                        return null;
+                    }
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        write(in, endPaths.get(entry));
+                    }
+                    Integer mode = modes.get(entry.getName());
+                    if (mode != null) {
+                        Files.setPosixFilePermissions(endPaths.get(entry), ZipUnixModes.toPermissions(mode));
+                    }
+                    return null;
+                });
+            }
+
+            logger.log(Level.FINER, "Extracting {0} entries using {1} threads, skipping {2} entries",
+                    new Object[]{files.size(), parallelism, skipped});
+            runAll(tasks);
+
+            return !files.isEmpty() && files.stream().allMatch(entry -> modes.containsKey(entry.getName()));
+        }
+    }
+
+    /**
+     * Reads the modes of the entries of an archive, see {@link ZipUnixModes}. Nothing is read where they can't be
+     * applied, and failing to read them only means the files get the default permissions.
+     *
+     * @param archive The zip file to read
+     * @return The permission bits of each entry which has them, by entry name
+     */
+    private Map<String, Integer> readModes(Path archive) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Collections.emptyMap();
+        }
+
+        try {
+            Map<String, Integer> modes = ZipUnixModes.read(archive);
+            logger.log(Level.FINER, "Read Unix modes of {0} entries from {1}",
+                    new Object[]{modes.size(), archive.toString()});
+            return modes;
+        } catch (IOException ioException) {
+            logger.log(Level.FINE, "Could not read Unix modes from {0}, using default permissions: {1}",
+                    new Object[]{archive.toString(), ioException.toString()});
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Gets the space needed to extract the entries of an archive selected by the given mapper, from the sizes
+     * recorded in its central directory.
+     *
+     * @param archive The zip file to be extracted
+     * @param mapper Maps each entry to where it would be extracted to
+     * @return The total uncompressed size in bytes of the selected entries
+     * @throws IOException If the archive could not be read
+     */
+    long extractedSize(Path archive, EntryMapper mapper) throws IOException {
+        long size = 0;
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getSize() > 0 && mapper.map(entry.getName()) != null) {
+                    size += entry.getSize();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Extracts an archive as it is read from a stream, one entry at a time.
+     *
+     * @param in The zip stream to extract
+     * @param targetDirectory The directory to extract into
+     * @throws IOException If the stream could not be read or an entry could not be written
+     */
+    void extract(InputStream in, Path targetDirectory) throws IOException {
+        extract(in, into(targetDirectory));
+    }
+
+    /**
+     * Extracts the entries selected by the given mapper as the archive is read from a stream, one entry at a time.
+     * Skipped entries still have to be read through to get to the next entry, but are never written to disk.
+     *
+     * @param in The zip stream to extract
+     * @param mapper Maps each entry to where it should be extracted to
+     * @throws IOException If the stream could not be read or an entry could not be written
+     */
+    void extract(InputStream in, EntryMapper mapper) throws IOException {
+        try (ZipInputStream zipInput = new ZipInputStream(in)) {
+            ZipEntry entry = zipInput.getNextEntry();
+            while (entry != null) {
+                Path endPath = mapper.map(entry.getName());
+                if (endPath == null) {
+                    logger.log(Level.FINEST, "Skipping zip entry {0}", entry.getName());
+                } else if (entry.isDirectory()) {
+                    Files.createDirectories(endPath);
+                } else {
+                    Files.createDirectories(endPath.getParent());
+                    write(zipInput, endPath);
+                }
+                entry = zipInput.getNextEntry();
+            }
+        }
+    }
+
+    /**
+     * Creates a mapper extracting every entry into the given directory, keeping the directory structure of the
+     * archive.
+     *
+     * @param targetDirectory The directory to extract into
+     * @return The mapper
+     */
+    static EntryMapper into(Path targetDirectory) {
+        return entryName -> resolve(targetDirectory, entryName);
+    }
+
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException executionException) {
+            Throwable cause = executionException.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting", interruptedException);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void write(InputStream in, Path endPath) throws IOException {
+        byte[] buffer = buffers.get();
+        try (OutputStream out = Files.newOutputStream(endPath)) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                out.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Resolves where an entry is extracted to, refusing entries which would end up outside the target directory.
+     */
+    static Path resolve(Path targetDirectory, String entryName) throws IOException {
+        Path endPath = targetDirectory.resolve(entryName).normalize();
+        if (!endPath.startsWith(targetDirectory.normalize())) {
+            throw new IOException("Zip entry " + entryName + " resolves outside of " + targetDirectory);
+        }
+        return endPath;
+    }
+}
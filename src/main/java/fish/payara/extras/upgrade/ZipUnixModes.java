@@ -0,0 +1,182 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the Unix file modes recorded in the central directory of a zip file. {@link java.util.zip.ZipEntry} doesn't
+ * expose the external attributes of an entry, which is where archivers running on Unix keep the mode of the file in
+ * the upper 16 bits.
+ */
+class ZipUnixModes {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+
+    // The "version made by" host system of archives created on Unix
+    private static final int UNIX_HOST = 3;
+    private static final int PERMISSION_BITS = 0777;
+
+    private static final PosixFilePermission[] PERMISSIONS = {
+            PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE,
+            PosixFilePermission.GROUP_READ, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_EXECUTE,
+            PosixFilePermission.OTHERS_READ, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_EXECUTE};
+
+    private ZipUnixModes() {
+    }
+
+    /**
+     * @param archive The zip file to read
+     * @return The permission bits of each entry created on Unix, by entry name. Entries created elsewhere, or without
+     * any permission bits, are left out.
+     * @throws IOException If the archive could not be read or its central directory is malformed
+     */
+    static Map<String, Integer> read(Path archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int tailSize = (int) Math.min(size, END_SIZE + MAX_COMMENT_SIZE);
+            ByteBuffer tail = read(channel, size - tailSize, tailSize);
+
+            // The end record is followed by a comment of unknown length, so search backwards for it
+            int end = tailSize - END_SIZE;
+            while (end >= 0 && tail.getInt(end) != END_SIGNATURE) {
+                end--;
+            }
+            if (end < 0) {
+                throw new ZipException("End of central directory not found in " + archive);
+            }
+
+            long entries = tail.getShort(end + 10) & 0xFFFF;
+            long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            if (entries == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+                long locatorOffset = size - tailSize + end - ZIP64_LOCATOR_SIZE;
+                ByteBuffer locator = locatorOffset < 0 ? null : read(channel, locatorOffset, ZIP64_LOCATOR_SIZE);
+                if (locator == null || locator.getInt(0) != ZIP64_LOCATOR_SIGNATURE) {
+                    throw new ZipException("Zip64 end of central directory locator not found in " + archive);
+                }
+                ByteBuffer zip64End = read(channel, locator.getLong(8), ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("Zip64 end of central directory not found in " + archive);
+                }
+                entries = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+            if (directorySize > Integer.MAX_VALUE) {
+                throw new ZipException("Central directory of " + archive + " is too large");
+            }
+
+            ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+            Map<String, Integer> modes = new HashMap<>();
+            int position = 0;
+            for (long i = 0; i < entries; i++) {
+                if (position + CENTRAL_HEADER_SIZE > directory.limit()
+                        || directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Malformed central directory in " + archive);
+                }
+                int host = (directory.getShort(position + 4) >> 8) & 0xFF;
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                int mode = (directory.getInt(position + 38) >>> 16) & PERMISSION_BITS;
+
+                if (position + CENTRAL_HEADER_SIZE + nameLength > directory.limit()) {
+                    throw new ZipException("Malformed central directory in " + archive);
+                }
+                if (host == UNIX_HOST && mode != 0) {
+                    byte[] name = new byte[nameLength];
+                    directory.position(position + CENTRAL_HEADER_SIZE);
+                    directory.get(name);
+                    modes.put(new String(name, StandardCharsets.UTF_8), mode);
+                }
+                position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+            }
+            return modes;
+        }
+    }
+
+    /**
+     * @param mode The permission bits of a Unix file mode, e.g. 0755
+     * @return The corresponding permissions
+     */
+    static Set<PosixFilePermission> toPermissions(int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            if ((mode & (0400 >> i)) != 0) {
+                permissions.add(PERMISSIONS[i]);
+            }
+        }
+        return permissions;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class DistributionCacheTest {
+
+    private static final Logger LOGGER = Logger.getLogger(DistributionCacheTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path cacheDirectory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        cacheDirectory = directory.resolve("cache");
+    }
+
+    @Test
+    public void testCachedDistributionIsReturned() throws IOException {
+        DistributionCache cache = new DistributionCache(cacheDirectory, 1024, LOGGER);
+        assertNull(cache.get("payara", "6.1.0", pinned("miss")));
+
+        Path put = cache.put("payara", "6.1.0", archive("first", 100), pinned("put"));
+        assertArrayEquals(content("first", 100), Files.readAllBytes(put));
+
+        assertEquals(pinned("hit"), cache.get("payara", "6.1.0", pinned("hit")));
+        assertNull(cache.get("payara-web", "6.1.0", pinned("miss")));
+        assertArrayEquals(content("first", 100), Files.readAllBytes(pinned("hit")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        DistributionCache cache = new DistributionCache(cacheDirectory, 250, LOGGER);
+        cache.put("payara", "6.1.0", archive("first", 100), pinned("first"));
+        Thread.sleep(5);
+        cache.put("payara", "6.2.0", archive("second", 100), pinned("second"));
+        Thread.sleep(5);
+
+        // Using the first makes the second the least recently used
+        assertNotNull(cache.get("payara", "6.1.0", pinned("first")));
+        Thread.sleep(5);
+        cache.put("payara", "6.3.0", archive("third", 100), pinned("third"));
+
+        assertNotNull(cache.get("payara", "6.1.0", pinned("first")));
+        assertNull(cache.get("payara", "6.2.0", pinned("second")));
+        assertNotNull(cache.get("payara", "6.3.0", pinned("third")));
+    }
+
+    @Test
+    public void testPinnedArchiveOutlivesEviction() throws IOException {
+        DistributionCache cache = new DistributionCache(cacheDirectory, 150, LOGGER);
+        Path first = cache.put("payara", "6.1.0", archive("first", 100), pinned("first"));
+
+        // As another upgrade running at the same time would, while the first archive is still being extracted
+        cache.put("payara", "6.2.0", archive("second", 100), pinned("second"));
+
+        assertNull(cache.get("payara", "6.1.0", pinned("evicted")));
+        assertArrayEquals(content("first", 100), Files.readAllBytes(first));
+    }
+
+    @Test
+    public void testCorruptArchiveIsDiscarded() throws IOException {
+        DistributionCache cache = new DistributionCache(cacheDirectory, 1024, LOGGER);
+        cache.put("payara", "6.1.0", archive("first", 100), pinned("first"));
+        Path blob;
+        try (Stream<Path> blobs = Files.list(cacheDirectory.resolve("blobs"))) {
+            blob = blobs.findFirst().get();
+        }
+        Files.delete(blob);
+        Files.write(blob, content("tampered", 100));
+
+        assertNull(cache.get("payara", "6.1.0", pinned("tampered")));
+        assertFalse(Files.exists(blob));
+    }
+
+    @Test
+    public void testDownloadDirectoryIsPrivate() throws IOException {
+        assumeTrue(Files.getFileStore(directory).supportsFileAttributeView(PosixFileAttributeView.class));
+        DistributionCache cache = new DistributionCache(cacheDirectory, 1024, LOGGER);
+
+        Path downloadDirectory = cache.getDownloadDirectory();
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(downloadDirectory));
+
+        // A directory opened up since is tightened again
+        Files.setPosixFilePermissions(downloadDirectory, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertEquals(downloadDirectory, cache.getDownloadDirectory());
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(downloadDirectory));
+    }
+
+    @Test
+    public void testSymlinkedDownloadDirectoryIsRefused() throws IOException {
+        Path elsewhere = Files.createDirectory(directory.resolve("elsewhere"));
+        Files.createDirectories(cacheDirectory);
+        try {
+            Files.createSymbolicLink(cacheDirectory.resolve("downloads"), elsewhere);
+        } catch (UnsupportedOperationException | IOException unsupported) {
+            assumeTrue(false);
+        }
+
+        try {
+            new DistributionCache(cacheDirectory, 1024, LOGGER).getDownloadDirectory();
+            fail("A symbolic link should not be accepted as the download directory");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("is not a directory"));
+        }
+    }
+
+    private Path pinned(String name) {
+        return directory.resolve(name + ".zip");
+    }
+
+    private Path archive(String seed, int size) throws IOException {
+        Path archive = Files.createTempFile(directory, "download", ".zip");
+        Files.write(archive, content(seed, size));
+        return archive;
+    }
+
+    private static byte[] content(String seed, int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) seed.charAt(i % seed.length());
+        }
+        return content;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.api.admin.CommandValidationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the downloader against a local stand-in for the Nexus repository.
+ */
+public class DistributionDownloaderTest {
+
+    private static final String DISTRIBUTION_PATH = "/fish/payara/distributions/payara/6.1.0/payara-6.1.0.zip";
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+    private static final Logger LOGGER = Logger.getLogger(DistributionDownloaderTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final byte[] content = new byte[10 * 1024 * 1024 + 123];
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicInteger truncatedResponses = new AtomicInteger();
+    private volatile boolean supportRanges = true;
+
+    private HttpServer server;
+    private Path directory;
+    private String url;
+
+    @Before
+    public void startServer() throws IOException {
+        new Random(42).nextBytes(content);
+        directory = temporaryFolder.getRoot().toPath();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fish/payara/distributions/", this::serve);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + DISTRIBUTION_PATH;
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testParallelRangedDownload() throws Exception {
+        Path target = directory.resolve("payara-6.1.0.zip");
+
+        newDownloader(4, 1).download(url, target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertFalse(Files.exists(directory.resolve("payara-6.1.0.zip.segments")));
+        assertFalse(Files.exists(directory.resolve("payara-6.1.0.zip.part")));
+    }
+
+    @Test
+    public void testSequentialFallbackWithoutRangeSupport() throws Exception {
+        supportRanges = false;
+        Path target = directory.resolve("payara-6.1.0.zip");
+
+        newDownloader(4, 1).download(url, target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void testResumeAfterDroppedConnections() throws Exception {
+        Path target = directory.resolve("payara-6.1.0.zip");
+
+        // Every range request gets cut off half way through, and no retries are allowed
+        truncatedResponses.set(Integer.MAX_VALUE);
+        try {
+            newDownloader(2, 1).download(url, target);
+            fail("Download should have failed");
+        } catch (IOException expected) {
+            assertTrue(Files.exists(directory.resolve("payara-6.1.0.zip.segments")));
+        }
+
+        // The next run should only fetch what is missing
+        truncatedResponses.set(0);
+        bytesServed.set(0);
+        newDownloader(2, 1).download(url, target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertTrue("Resumed download fetched " + bytesServed.get() + " bytes",
+                bytesServed.get() < content.length);
+    }
+
+    @Test
+    public void testRetryWithinOneRun() throws Exception {
+        Path target = directory.resolve("payara-6.1.0.zip");
+
+        truncatedResponses.set(2);
+        newDownloader(2, 3).download(url, target);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void testSymlinkedPartialDownloadIsNotFollowed() throws Exception {
+        Path target = directory.resolve("payara-6.1.0.zip");
+        Path victim = directory.resolve("victim");
+        byte[] original = "do not overwrite".getBytes(StandardCharsets.UTF_8);
+        Files.write(victim, original);
+        try {
+            Files.createSymbolicLink(directory.resolve("payara-6.1.0.zip.part"), victim);
+        } catch (UnsupportedOperationException | IOException unsupported) {
+            assumeTrue(false);
+        }
+
+        try {
+            newDownloader(2, 1).download(url, target);
+            fail("Download should not have written through a symbolic link");
+        } catch (IOException expected) {
+            assertArrayEquals(original, Files.readAllBytes(victim));
+        }
+    }
+
+    @Test
+    public void testMissingVersion() throws Exception {
+        try {
+            newDownloader(2, 1).download(url.replace("6.1.0", "6.99.0"), directory.resolve("missing.zip"));
+            fail("Download should have failed");
+        } catch (CommandValidationException expected) {
+            assertEquals("Payara version not found", expected.getMessage());
+        }
+    }
+
+    private DistributionDownloader newDownloader(int segments, int attempts) {
+        return new DistributionDownloader(
+                address -> (HttpURLConnection) new URL(address).openConnection(), "Basic dGVzdDp0ZXN0",
+                segments, attempts, LOGGER);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestURI().getPath().equals(DISTRIBUTION_PATH)) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = range == null || !supportRanges ? null : RANGE.matcher(range);
+            if (matcher == null || !matcher.matches()) {
+                exchange.sendResponseHeaders(200, content.length);
+                write(exchange, 0, content.length);
+                return;
+            }
+
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(Integer.parseInt(matcher.group(2)), content.length - 1);
+            int length = end - start + 1;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.getResponseHeaders().set("ETag", "\"payara-6.1.0\"");
+            exchange.sendResponseHeaders(206, length);
+
+            // Drop the connection half way through the range (the one byte probe always succeeds)
+            if (length > 1 && truncatedResponses.getAndDecrement() > 0) {
+                write(exchange, start, length / 2);
+                return;
+            }
+            write(exchange, start, length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void write(HttpExchange exchange, int offset, int length) throws IOException {
+        OutputStream out = exchange.getResponseBody();
+        out.write(content, offset, length);
+        out.flush();
+        bytesServed.addAndGet(length);
+    }
+}
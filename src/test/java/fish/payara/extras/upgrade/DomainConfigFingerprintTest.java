@@ -0,0 +1,103 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DomainConfigFingerprintTest {
+
+    private static final Logger LOGGER = Logger.getLogger(DomainConfigFingerprintTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path domain;
+
+    @Before
+    public void createDomain() throws IOException {
+        domain = temporaryFolder.getRoot().toPath().resolve("domain1");
+        write("config/domain.xml", "<domain/>");
+        write("config/keystore.p12", "keys");
+    }
+
+    @Test
+    public void testUnrecordedDomainHasChanged() {
+        assertFalse(new DomainConfigFingerprint(domain, LOGGER).isUnchanged());
+    }
+
+    @Test
+    public void testStartingDomainIsNotAChange() throws IOException {
+        DomainConfigFingerprint fingerprint = new DomainConfigFingerprint(domain, LOGGER);
+        fingerprint.record();
+        write("config/pid", "1234");
+        write("logs/server.log", "started");
+        assertTrue(fingerprint.isUnchanged());
+    }
+
+    @Test
+    public void testConfigChangeIsDetected() throws IOException {
+        DomainConfigFingerprint fingerprint = new DomainConfigFingerprint(domain, LOGGER);
+        fingerprint.record();
+        write("config/domain.xml", "<domain changed=\"true\"/>");
+        assertFalse(fingerprint.isUnchanged());
+
+        fingerprint.record();
+        write("config/admin-keyfile", "admin");
+        assertFalse(fingerprint.isUnchanged());
+
+        fingerprint.record();
+        fingerprint.clear();
+        assertFalse(fingerprint.isUnchanged());
+    }
+
+    private void write(String name, String content) throws IOException {
+        TestFiles.write(domain.resolve(name), content);
+    }
+}
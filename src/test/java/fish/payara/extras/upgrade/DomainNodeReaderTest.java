@@ -0,0 +1,146 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DomainNodeReaderTest {
+
+    private static final Logger LOGGER = Logger.getLogger(DomainNodeReaderTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+    }
+
+    @Test
+    public void testNodesAreRead() throws IOException {
+        Path domainXml = write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<domain log-root=\"${com.sun.aas.instanceRoot}/logs\" version=\"10.0\">\n"
+                + "  <applications><application name=\"app\"><module name=\"app\"/></application></applications>\n"
+                + "  <nodes>\n"
+                + "    <node name=\"localhost-domain1\" type=\"CONFIG\" node-host=\"localhost\""
+                + " install-dir=\"${com.sun.aas.productRoot}\"/>\n"
+                + "    <node name=\"ssh-node\" type=\"SSH\" node-host=\"remote.example.com\""
+                + " install-dir=\"/opt/payara\" node-dir=\"/opt/nodes\">\n"
+                + "      <ssh-connector ssh-port=\"2222\">\n"
+                + "        <ssh-auth keyfile=\"/home/payara/.ssh/id_rsa\" user-name=\"payara\"/>\n"
+                + "      </ssh-connector>\n"
+                + "    </node>\n"
+                + "    <node name=\"default-ssh-node\" type=\"SSH\" node-host=\"other.example.com\">\n"
+                + "      <ssh-connector>\n"
+                + "        <ssh-auth password=\"${ALIAS=ssh-password}\"/>\n"
+                + "      </ssh-connector>\n"
+                + "    </node>\n"
+                + "  </nodes>\n"
+                + "  <configs><config name=\"server-config\"/></configs>\n"
+                + "</domain>\n");
+
+        List<DomainNode> nodes = new DomainNodeReader(LOGGER).read(domainXml, "domain1");
+        assertEquals(3, nodes.size());
+
+        DomainNode local = nodes.get(0);
+        assertEquals("localhost-domain1", local.getName());
+        assertEquals("CONFIG", local.getType());
+        assertTrue(local.isDefaultLocalNode());
+        assertTrue(local.isLocal());
+        assertNull(local.getSshPort());
+        assertNull(local.getUserName());
+
+        DomainNode ssh = nodes.get(1);
+        assertEquals("SSH", ssh.getType());
+        assertEquals("remote.example.com", ssh.getNodeHost());
+        assertEquals("/opt/payara", ssh.getInstallDir());
+        assertEquals("/opt/nodes", ssh.getNodeDir());
+        assertFalse(ssh.isDefaultLocalNode());
+        assertEquals("2222", ssh.getSshPort());
+        assertEquals("payara", ssh.getUserName());
+        assertEquals("/home/payara/.ssh/id_rsa", ssh.getKeyfile());
+        assertNull(ssh.getPassword());
+
+        // Attributes which aren't set take the defaults of the config beans
+        DomainNode defaults = nodes.get(2);
+        assertEquals("${com.sun.aas.productRoot}", defaults.getInstallDir());
+        assertNull(defaults.getNodeDir());
+        assertEquals("22", defaults.getSshPort());
+        assertEquals("${user.name}", defaults.getUserName());
+        assertEquals("${ALIAS=ssh-password}", defaults.getPassword());
+    }
+
+    @Test
+    public void testDomainWithoutNodes() throws IOException {
+        Path domainXml = write("<domain><configs><config name=\"server-config\"/></configs></domain>");
+        assertTrue(new DomainNodeReader(LOGGER).read(domainXml, "domain1").isEmpty());
+    }
+
+    @Test
+    public void testMalformedDomainIsRejected() throws IOException {
+        Path domainXml = write("<domain><nodes><node name=\"broken\"></nodes></domain>");
+        try {
+            new DomainNodeReader(LOGGER).read(domainXml, "domain1");
+            fail("Malformed domain.xml was read");
+        } catch (IOException expected) {
+            // The command falls back to parsing with the modules
+        }
+    }
+
+    private Path write(String content) throws IOException {
+        return TestFiles.write(directory.resolve("domain.xml"), content);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.glassfish.api.admin.CommandException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExecuteForEachDomainTest {
+
+    private static final int DOMAINS = BaseUpgradeCommand.DOMAIN_COMMAND_THREADS * 2 + 1;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Set<String> attempted = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private File domainsDir;
+
+    private final BaseUpgradeCommand command = new BaseUpgradeCommand() {
+        @Override
+        protected int executeCommand() {
+            return SUCCESS;
+        }
+
+        @Override
+        protected File getDomainsDir() {
+            return domainsDir;
+        }
+
+        @Override
+        protected void executeForDomain(String commandName, String domainName) throws CommandException {
+            assertEquals("backup-domain", commandName);
+            attempted.add(domainName);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+
+            if (domainName.startsWith("failing")) {
+                throw new CommandException(commandName + " exited with code 1");
+            }
+        }
+    };
+
+    @Before
+    public void createDomains() throws IOException {
+        domainsDir = temporaryFolder.newFolder("domains");
+        for (int i = 0; i < DOMAINS; i++) {
+            temporaryFolder.newFolder("domains", (i % 3 == 1 ? "failing" : "domain") + i);
+        }
+        // Files in the domains directory aren't domains
+        temporaryFolder.newFile("domains/.lock");
+    }
+
+    @Test
+    public void testEveryDomainIsAttemptedWithinTheThreadLimit() {
+        try {
+            command.executeForEachDomain("backup-domain");
+            fail("Failing domains should fail the command");
+        } catch (CommandException expected) {
+            for (int i = 0; i < DOMAINS; i++) {
+                String domain = (i % 3 == 1 ? "failing" : "domain") + i;
+                assertEquals("Failure of " + domain + " reported in: " + expected.getMessage(),
+                        domain.startsWith("failing"), expected.getMessage().contains(domain + " ("));
+            }
+            assertTrue(expected.getMessage().startsWith("backup-domain failed for domains: "));
+        }
+
+        assertEquals(DOMAINS, attempted.size());
+        assertFalse(attempted.contains(".lock"));
+        assertTrue("At most " + BaseUpgradeCommand.DOMAIN_COMMAND_THREADS + " domains should be handled at once, "
+                + maxRunning.get() + " were", maxRunning.get() <= BaseUpgradeCommand.DOMAIN_COMMAND_THREADS);
+        if (BaseUpgradeCommand.DOMAIN_COMMAND_THREADS > 1) {
+            assertTrue("Domains should be handled at the same time", maxRunning.get() > 1);
+        }
+    }
+
+    @Test
+    public void testNoFailuresCompletes() throws CommandException {
+        for (File domaindir : domainsDir.listFiles(File::isDirectory)) {
+            if (domaindir.getName().startsWith("failing")) {
+                assertTrue(domaindir.renameTo(new File(domainsDir, "passing" + domaindir.getName())));
+            }
+        }
+
+        command.executeForEachDomain("backup-domain");
+
+        assertEquals(DOMAINS, attempted.size());
+    }
+}
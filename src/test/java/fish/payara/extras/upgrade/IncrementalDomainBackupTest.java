@@ -0,0 +1,160 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalDomainBackupTest {
+
+    private static final Logger LOGGER = Logger.getLogger(IncrementalDomainBackupTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path domain;
+
+    @Before
+    public void createDomain() throws IOException {
+        domain = temporaryFolder.getRoot().toPath().resolve("domain1");
+        write("config/domain.xml", "<domain/>");
+        write("applications/app/index.html", "hello");
+        write("docroot/index.html", "hello");
+        write("osgi-cache/felix/bundle0", "cache");
+        Files.createDirectories(domain.resolve("lib/ext"));
+    }
+
+    @Test
+    public void testDomainIsRestored() throws IOException {
+        IncrementalDomainBackup backup = new IncrementalDomainBackup(domain, LOGGER);
+        backup.backup();
+        assertTrue(backup.hasLatest());
+        // Identical content is only stored once
+        assertEquals(2, countObjects());
+
+        write("config/domain.xml", "<domain upgraded=\"true\"/>");
+        write("applications/new-app/index.html", "new");
+        Files.delete(domain.resolve("docroot/index.html"));
+        Files.delete(domain.resolve("lib/ext"));
+
+        backup.restore();
+
+        assertContent("<domain/>", "config/domain.xml");
+        assertContent("hello", "docroot/index.html");
+        assertFalse(Files.exists(domain.resolve("applications/new-app")));
+        assertTrue(Files.isDirectory(domain.resolve("lib/ext")));
+        // The cache isn't backed up, and the backups themselves survive
+        assertFalse(Files.exists(domain.resolve("osgi-cache")));
+        assertTrue(backup.hasLatest());
+    }
+
+    @Test
+    public void testUnchangedContentIsReused() throws IOException, InterruptedException {
+        IncrementalDomainBackup backup = new IncrementalDomainBackup(domain, LOGGER);
+        String first = backup.backup();
+        // The SHA-256 of "hello", the content of both index.html files
+        Path object = domain.resolve(
+                "backups/upgrade/objects/2c/f24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824");
+        FileTime stored = Files.getLastModifiedTime(object);
+
+        Thread.sleep(5);
+        write("config/domain.xml", "<domain changed=\"true\"/>");
+        String second = backup.backup();
+        assertNotEquals(first, second);
+        assertEquals(3, countObjects());
+
+        Thread.sleep(5);
+        write("config/domain.xml", "<domain changed=\"again\"/>");
+        backup.backup();
+        // Only the two newest snapshots are kept, so the first domain.xml is gone
+        assertEquals(2, countSnapshots());
+        assertEquals(3, countObjects());
+        assertEquals(stored, Files.getLastModifiedTime(object));
+
+        backup.restore();
+        assertContent("<domain changed=\"again\"/>", "config/domain.xml");
+    }
+
+    @Test
+    public void testClearedBackupIsNotRestored() throws IOException {
+        IncrementalDomainBackup backup = new IncrementalDomainBackup(domain, LOGGER);
+        assertFalse(backup.hasLatest());
+        backup.backup();
+        backup.clearLatest();
+        assertFalse(backup.hasLatest());
+        assertEquals(1, countSnapshots());
+    }
+
+    private void write(String name, String content) throws IOException {
+        TestFiles.write(domain.resolve(name), content);
+    }
+
+    private void assertContent(String expected, String name) throws IOException {
+        assertArrayEquals(bytes(expected), Files.readAllBytes(domain.resolve(name)));
+    }
+
+    private long countObjects() throws IOException {
+        try (Stream<Path> objects = Files.walk(domain.resolve("backups/upgrade/objects"))) {
+            return objects.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private long countSnapshots() throws IOException {
+        try (Stream<Path> snapshots = Files.list(domain.resolve("backups/upgrade/snapshots"))) {
+            return snapshots.count();
+        }
+    }
+}
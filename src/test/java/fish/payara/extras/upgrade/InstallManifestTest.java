@@ -0,0 +1,151 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class InstallManifestTest {
+
+    private static final Logger LOGGER = Logger.getLogger(InstallManifestTest.class.getName());
+
+    private static final String[] MOVE_FOLDERS = {"modules", "config" + File.separator + "osgi.properties",
+            "domains" + File.separator + "domain1" + File.separator + "osgi-cache"};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path glassfish;
+
+    @Before
+    public void createInstall() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        glassfish = directory.resolve("glassfish");
+        Files.write(Files.createDirectories(glassfish.resolve("modules/autostart")).resolve("bundle.jar"),
+                bytes("bundle"));
+        Files.write(glassfish.resolve("modules/web-core.jar"), bytes("web core"));
+        Files.write(Files.createDirectories(glassfish.resolve("config")).resolve("osgi.properties"), bytes("osgi"));
+        Files.write(Files.createDirectories(glassfish.resolve("domains/domain1/osgi-cache")).resolve("cache"),
+                bytes("cache"));
+    }
+
+    @Test
+    public void testManifestRoundTrip() throws IOException {
+        Path manifestPath = glassfish.resolve("config/" + InstallManifest.FILE_NAME);
+        scan(null, null).write(manifestPath);
+
+        InstallManifest manifest = InstallManifest.read(manifestPath, LOGGER);
+        assertEquals("6.2.0", manifest.getVersion());
+        // The osgi-cache is never recorded
+        assertEquals(3, manifest.size());
+        assertEquals(Long.valueOf(UnchangedFileLinker.crc32(glassfish.resolve("modules/autostart/bundle.jar"))),
+                manifest.getCrc("modules/autostart/bundle.jar", attributes("modules/autostart/bundle.jar")));
+        assertEquals(Long.valueOf(UnchangedFileLinker.crc32(glassfish.resolve("config/osgi.properties"))),
+                manifest.getCrc("config/osgi.properties", attributes("config/osgi.properties")));
+    }
+
+    @Test
+    public void testChangedFileIsNotUsed() throws IOException {
+        InstallManifest manifest = scan(null, null);
+
+        Path webCore = glassfish.resolve("modules/web-core.jar");
+        Files.write(webCore, bytes("web kore"));
+        Files.setLastModifiedTime(webCore, FileTime.fromMillis(0));
+
+        assertNull(manifest.getCrc("modules/web-core.jar", attributes("modules/web-core.jar")));
+        assertEquals(Long.valueOf(UnchangedFileLinker.crc32(webCore)),
+                scan(manifest, null).getCrc("modules/web-core.jar", attributes("modules/web-core.jar")));
+    }
+
+    @Test
+    public void testArchiveEntriesAreUsed() throws IOException {
+        Path archive = directory.resolve("payara-6.2.0.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/web-core.jar"));
+            out.write(bytes("web kore"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/domains/domain1/config/domain.xml"));
+            out.write(bytes("<domain/>"));
+        }
+        Map<String, ZipEntry> extracted = InstallManifest.readArchive(archive,
+                new MoveFolderLayout(MOVE_FOLDERS));
+        assertEquals(1, extracted.size());
+
+        // Taken from the archive rather than read from the file, which has the same size
+        InstallManifest manifest = scan(null, extracted);
+        assertEquals(Long.valueOf(extracted.get("modules/web-core.jar").getCrc()),
+                manifest.getCrc("modules/web-core.jar", attributes("modules/web-core.jar")));
+    }
+
+    @Test
+    public void testInvalidManifestIsIgnored() throws IOException {
+        Path manifestPath = Files.write(glassfish.resolve("config/" + InstallManifest.FILE_NAME),
+                bytes("# Payara install manifest 1\nF\tnot a crc\t1\t1\tmodules/web-core.jar\n"));
+
+        assertNull(InstallManifest.read(manifestPath, LOGGER));
+        assertNull(InstallManifest.read(glassfish.resolve("config/missing.txt"), LOGGER));
+    }
+
+    private InstallManifest scan(InstallManifest previous, Map<String, ZipEntry> extracted) throws IOException {
+        return InstallManifest.scan(MOVE_FOLDERS, glassfish::resolve, "6.2.0", previous, extracted, LOGGER);
+    }
+
+    private BasicFileAttributes attributes(String name) throws IOException {
+        return Files.readAttributes(glassfish.resolve(name), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+}
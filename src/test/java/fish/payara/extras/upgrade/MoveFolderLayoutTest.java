@@ -0,0 +1,90 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MoveFolderLayoutTest {
+
+    private final MoveFolderLayout layout = new MoveFolderLayout(new String[]{
+            "modules",
+            "config" + File.separator + "branding",
+            "config" + File.separator + "osgi.properties",
+            "h2db",
+            ".." + File.separator + "h2db",
+            ".." + File.separator + "mq",
+            ".." + File.separator + "README.txt",
+            "domains" + File.separator + "domain1" + File.separator + "osgi-cache"});
+
+    @Test
+    public void testEntriesWithinMoveFolders() {
+        assertMatch("modules", "web-core.jar", "payara6/glassfish/modules/web-core.jar");
+        assertMatch("modules", "autostart/osgi-cdi.jar", "payara5/glassfish/modules/autostart/osgi-cdi.jar");
+        assertMatch("config" + File.separator + "osgi.properties", "", "payara6/glassfish/config/osgi.properties");
+        assertMatch(".." + File.separator + "mq", "lib/imq.jar", "payara6/mq/lib/imq.jar");
+        assertMatch(".." + File.separator + "README.txt", "", "payara6/README.txt");
+        assertMatch("h2db", "bin/h2.jar", "payara5/glassfish/h2db/bin/h2.jar");
+        assertMatch(".." + File.separator + "h2db", "bin/h2.jar", "payara5/h2db/bin/h2.jar");
+        assertMatch("modules", "", "payara6/glassfish/modules/");
+    }
+
+    @Test
+    public void testEntriesOutsideMoveFolders() {
+        assertNull(layout.match("payara6/"));
+        assertNull(layout.match("payara6/glassfish/"));
+        assertNull(layout.match("payara6/glassfish/config/"));
+        assertNull(layout.match("payara6/glassfish/config/domain.xml"));
+        assertNull(layout.match("payara6/glassfish/domains/domain1/config/domain.xml"));
+        assertNull(layout.match("payara6/glassfish/modulesextra/foo.jar"));
+        assertNull(layout.match("other/glassfish/modules/web-core.jar"));
+        assertNull(layout.match("payara6/glassfish/modules/../../../etc/passwd"));
+    }
+
+    private void assertMatch(String moveFolder, String relativePath, String entryName) {
+        MoveFolderLayout.Match match = layout.match(entryName);
+        assertEquals(moveFolder, match.getMoveFolder());
+        assertEquals(relativePath, match.getRelativePath());
+    }
+}
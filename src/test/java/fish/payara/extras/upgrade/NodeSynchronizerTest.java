@@ -0,0 +1,165 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class NodeSynchronizerTest {
+
+    private static final Logger LOGGER = Logger.getLogger(NodeSynchronizerTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path local;
+    private Path remote;
+
+    /**
+     * Runs commands with the local shell rather than over SSH, with the "remote" install in the same file system.
+     */
+    private final RemoteShell localShell = new RemoteShell() {
+        @Override
+        public Process start(String command) throws IOException {
+            return new ProcessBuilder("sh", "-c", command).start();
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Before
+    public void createDirectory() throws IOException {
+        assumeTrue(Files.isExecutable(Paths.get("/bin/sh")));
+        directory = temporaryFolder.getRoot().toPath();
+        local = Files.createDirectories(directory.resolve("local"));
+        remote = directory.resolve("remote");
+    }
+
+    @Test
+    public void testChecksumMatchesCksum() throws IOException {
+        Path file = Files.write(directory.resolve("check"), bytes("123456789"));
+        assertEquals(930766865L, PosixChecksum.of(file));
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreTransferred() throws IOException {
+        write(local, "glassfish/modules/unchanged.jar", "unchanged");
+        write(local, "glassfish/modules/changed.jar", "new content");
+        write(local, "glassfish/modules/added.jar", "added");
+        write(local, "glassfish/domains/domain1/config/domain.xml", "das domain");
+        write(local, "mq/lib/imq.jar", "mq");
+
+        write(remote, "glassfish/modules/unchanged.jar", "unchanged");
+        write(remote, "glassfish/modules/changed.jar", "old content");
+        write(remote, "glassfish/modules/removed.jar", "removed");
+        write(remote, "glassfish/nodes/node1/agent/config/das.properties", "node");
+        write(remote, "mq/lib/imq.jar", "mq");
+
+        NodeSynchronizer synchronizer = new NodeSynchronizer(local, 60_000, LOGGER);
+        assertEquals(2, synchronizer.sync(localShell, remote.toString()));
+
+        assertContent("new content", remote.resolve("glassfish/modules/changed.jar"));
+        assertContent("added", remote.resolve("glassfish/modules/added.jar"));
+        assertContent("unchanged", remote.resolve("glassfish/modules/unchanged.jar"));
+        // Files only on the node are left in place, as with install-node-ssh
+        assertContent("removed", remote.resolve("glassfish/modules/removed.jar"));
+        assertContent("node", remote.resolve("glassfish/nodes/node1/agent/config/das.properties"));
+        assertFalse(Files.exists(remote.resolve("glassfish/domains")));
+
+        assertEquals(0, synchronizer.sync(localShell, remote.toString()));
+    }
+
+    @Test
+    public void testSynchronizerIsSharedByNodes() throws IOException {
+        write(local, "glassfish/modules/changed.jar", "new content");
+        write(remote, "glassfish/modules/changed.jar", "old content");
+        Path otherRemote = directory.resolve("other-remote");
+        write(otherRemote, "glassfish/modules/changed.jar", "new content");
+
+        // The local checksums computed for the first node are reused for the second
+        NodeSynchronizer synchronizer = new NodeSynchronizer(local, 60_000, LOGGER);
+        assertEquals(1, synchronizer.sync(localShell, remote.toString()));
+        assertEquals(0, synchronizer.sync(localShell, otherRemote.toString()));
+
+        assertContent("new content", remote.resolve("glassfish/modules/changed.jar"));
+    }
+
+    @Test
+    public void testMissingInstallIsCreated() throws IOException {
+        write(local, "glassfish/bin/asadmin", "#!/bin/sh");
+        local.resolve("glassfish/bin/asadmin").toFile().setExecutable(true);
+        // Longer than the 100 bytes a tar header holds without using its prefix field
+        String deepFile = "glassfish/lib/" + String.join("/", Collections.nCopies(6, "long-directory-name"))
+                + "/file.txt";
+        write(local, deepFile, "deep");
+
+        assertEquals(2, new NodeSynchronizer(local, 60_000, LOGGER).sync(localShell, remote.toString()));
+
+        assertTrue(Files.isExecutable(remote.resolve("glassfish/bin/asadmin")));
+        assertContent("deep", remote.resolve(deepFile));
+    }
+
+    private static void write(Path root, String name, String content) throws IOException {
+        TestFiles.write(root.resolve(name), content);
+    }
+
+    private static void assertContent(String expected, Path file) throws IOException {
+        assertArrayEquals(bytes(expected), Files.readAllBytes(file));
+    }
+}
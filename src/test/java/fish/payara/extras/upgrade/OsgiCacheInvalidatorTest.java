@@ -0,0 +1,122 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static fish.payara.extras.upgrade.TestFiles.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OsgiCacheInvalidatorTest {
+
+    private static final Logger LOGGER = Logger.getLogger(OsgiCacheInvalidatorTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path glassfish;
+    private Path osgiCache;
+
+    @Before
+    public void createInstall() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        glassfish = directory.resolve("glassfish");
+        osgiCache = directory.resolve("osgi-cache");
+
+        write(glassfish.resolve("osgi.old/" + OsgiCacheInvalidator.FELIX_JAR), "felix");
+        write(glassfish.resolve("osgi/" + OsgiCacheInvalidator.FELIX_JAR), "felix");
+        write(glassfish.resolve("modules.old/unchanged.jar"), "unchanged");
+        write(glassfish.resolve("modules/unchanged.jar"), "unchanged");
+        write(glassfish.resolve("modules.old/changed.jar"), "old");
+        write(glassfish.resolve("modules/changed.jar"), "new");
+        write(glassfish.resolve("modules.old/autostart/removed.jar"), "removed");
+        write(glassfish.resolve("modules/added.jar"), "added");
+
+        write(osgiCache.resolve("felix/bundle0/data/system"), "system");
+        cacheBundle(1, "reference:" + glassfish.resolve("modules/unchanged.jar").toUri());
+        cacheBundle(2, "reference:" + glassfish.resolve("modules/changed.jar").toUri());
+        cacheBundle(3, glassfish.resolve("modules/autostart/removed.jar").toUri().toString());
+        cacheBundle(4, directory.resolve("domain1/autodeploy/bundles/app.jar").toUri().toString());
+        // Older versions of Felix keep the location in its own file
+        write(osgiCache.resolve("felix/bundle5/bundle.location"),
+                glassfish.resolve("modules/changed.jar").toUri().toString());
+    }
+
+    @Test
+    public void testOnlyChangedBundlesAreInvalidated() throws IOException {
+        OsgiCacheInvalidator invalidator = createInvalidator();
+        assertTrue(invalidator.isCacheCompatible());
+        assertEquals(3, invalidator.invalidate(osgiCache));
+
+        assertTrue(Files.exists(osgiCache.resolve("felix/bundle0")));
+        assertTrue(Files.exists(osgiCache.resolve("felix/bundle1")));
+        assertFalse(Files.exists(osgiCache.resolve("felix/bundle2")));
+        assertFalse(Files.exists(osgiCache.resolve("felix/bundle3")));
+        assertTrue(Files.exists(osgiCache.resolve("felix/bundle4")));
+        assertFalse(Files.exists(osgiCache.resolve("felix/bundle5")));
+    }
+
+    @Test
+    public void testChangedFrameworkIsIncompatible() throws IOException {
+        write(glassfish.resolve("osgi/" + OsgiCacheInvalidator.FELIX_JAR), "newer felix");
+        assertFalse(createInvalidator().isCacheCompatible());
+    }
+
+    private OsgiCacheInvalidator createInvalidator() {
+        return new OsgiCacheInvalidator(glassfish.resolve("modules"),
+                folder -> glassfish.resolve(folder + ".old"), glassfish::resolve, LOGGER);
+    }
+
+    private void cacheBundle(int id, String location) throws IOException {
+        write(osgiCache.resolve("felix/bundle" + id + "/bundle.info"), id + "\n" + location + "\n32\n1\n0\n");
+        write(osgiCache.resolve("felix/bundle" + id + "/version0.0/revision.location"), location);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static fish.payara.extras.upgrade.TestFiles.write;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the warmer against a stand-in asadmin script which creates and "starts" domains by making their directories.
+ */
+public class OsgiCacheWarmerTest {
+
+    private static final Logger LOGGER = Logger.getLogger(OsgiCacheWarmerTest.class.getName());
+
+    private static final String ASADMIN = "#!/bin/sh\n"
+            + "bin=$(dirname \"$0\")\n"
+            + "echo \"$2\" >> \"$bin/invocations\"\n"
+            + "for argument; do\n"
+            + "  if [ \"$previous\" = \"--domaindir\" ]; then domaindir=$argument; fi\n"
+            + "  previous=$argument\n"
+            + "done\n"
+            + "domain=\"$domaindir/$argument\"\n"
+            + "case \"$2\" in\n"
+            + "  create-domain) mkdir -p \"$domain/config\" ;;\n"
+            + "  start-domain)\n"
+            + "    if [ -f \"$bin/fail-start\" ]; then echo \"Could not start\"; exit 1; fi\n"
+            + "    mkdir -p \"$domain/osgi-cache/felix/bundle1\"\n"
+            + "    echo generated > \"$domain/osgi-cache/felix/bundle1/bundle.info\" ;;\n"
+            + "esac\n";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path glassfishDir;
+
+    @Before
+    public void createAsadmin() throws IOException {
+        assumeTrue(Files.isExecutable(Paths.get("/bin/sh")));
+        glassfishDir = temporaryFolder.newFolder("glassfish").toPath();
+        Path asadmin = Files.createDirectory(glassfishDir.resolve("bin")).resolve("asadmin");
+        Files.write(asadmin, bytes(ASADMIN));
+        Files.setPosixFilePermissions(asadmin, PosixFilePermissions.fromString("rwxr-xr-x"));
+    }
+
+    @Test
+    public void testFreePortBaseHasItsWholeRangeFree() throws IOException {
+        int portBase = OsgiCacheWarmer.findFreePortBase();
+
+        assertEquals(0, portBase % 100);
+        assertTrue("Port base " + portBase + " is out of range", portBase >= 10000 && portBase < 60000);
+        for (int port = portBase; port < portBase + 100; port++) {
+            try (ServerSocket socket = new ServerSocket()) {
+                socket.setReuseAddress(true);
+                socket.bind(new InetSocketAddress(port));
+            }
+        }
+    }
+
+    @Test
+    public void testCacheIsCopiedIntoDomainsWithoutOne() throws IOException {
+        Path domains = temporaryFolder.newFolder("domains").toPath();
+        File withoutCache = Files.createDirectory(domains.resolve("domain1")).toFile();
+        Path ownCache = Files.createDirectories(domains.resolve("domain2").resolve("osgi-cache"));
+        write(ownCache.resolve("own.info"), "own");
+
+        OsgiCacheWarmer warmer = new OsgiCacheWarmer(glassfishDir.toString(), 60000, LOGGER);
+        Path osgiCache = warmer.warm(temporaryFolder.newFolder("work").toPath());
+        List<String> copiedTo = warmer.copyToDomains(osgiCache,
+                new File[]{withoutCache, domains.resolve("domain2").toFile()});
+
+        assertEquals(Arrays.asList("create-domain", "start-domain", "stop-domain"), invocations());
+        assertEquals(Collections.singletonList("domain1"), copiedTo);
+        assertArrayEquals(bytes("generated\n"), Files.readAllBytes(
+                withoutCache.toPath().resolve("osgi-cache/felix/bundle1/bundle.info")));
+        assertEquals(Collections.singletonList(ownCache.resolve("own.info")), list(ownCache));
+    }
+
+    @Test
+    public void testDomainIsStoppedWhenStartFails() throws IOException {
+        Files.createFile(glassfishDir.resolve("bin").resolve("fail-start"));
+
+        try {
+            new OsgiCacheWarmer(glassfishDir.toString(), 60000, LOGGER).warm(temporaryFolder.newFolder("work").toPath());
+            fail("Warming should fail when the domain can't be started");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Could not start"));
+        }
+        assertEquals(Arrays.asList("create-domain", "start-domain", "stop-domain"), invocations());
+    }
+
+    private List<String> invocations() throws IOException {
+        return Files.readAllLines(glassfishDir.resolve("bin").resolve("invocations"));
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelTreeCopierTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelTreeCopierTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path source;
+
+    @Before
+    public void createTree() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        source = Files.createDirectories(directory.resolve("source"));
+        for (int i = 0; i < 100; i++) {
+            Files.write(source.resolve("module-" + i + ".jar"), bytes("module " + i));
+        }
+        Files.write(Files.createDirectories(source.resolve("autostart/nested")).resolve("bundle.jar"),
+                bytes("bundle"));
+        Files.createDirectories(source.resolve("empty"));
+    }
+
+    @Test
+    public void testTreeIsCopied() throws IOException {
+        Path target = directory.resolve("target");
+        // Existing files get overwritten, and files only in the target are left alone
+        Files.createDirectories(target);
+        Files.write(target.resolve("module-0.jar"), bytes("old"));
+        Files.write(target.resolve("extra.jar"), bytes("extra"));
+
+        new ParallelTreeCopier(4, LOGGER).copy(source, target);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("module " + i, read(target.resolve("module-" + i + ".jar")));
+        }
+        assertEquals("bundle", read(target.resolve("autostart/nested/bundle.jar")));
+        assertTrue(Files.isDirectory(target.resolve("empty")));
+        assertEquals("extra", read(target.resolve("extra.jar")));
+    }
+
+    @Test
+    public void testSingleFileIsCopied() throws IOException {
+        Path target = directory.resolve("config/osgi.properties");
+
+        new ParallelTreeCopier(2, LOGGER).copy(source.resolve("module-1.jar"), target);
+
+        assertEquals("module 1", read(target));
+    }
+
+    @Test
+    public void testMissingSourceIsReported() throws IOException {
+        try {
+            new ParallelTreeCopier(2, LOGGER).copy(directory.resolve("missing"), directory.resolve("target"));
+            fail("Copying a missing tree should fail");
+        } catch (NoSuchFileException expected) {
+            assertTrue(expected.getMessage().contains("missing"));
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReinstallSSHNodesTest {
+
+    private final Map<String, AtomicInteger> runningPerHost = new ConcurrentHashMap<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger maxRunningPerHost = new AtomicInteger();
+
+    private final BaseUpgradeCommand command = new BaseUpgradeCommand() {
+        @Override
+        protected int executeCommand() {
+            return SUCCESS;
+        }
+
+        @Override
+        protected NodeReinstallResult reinstallSSHNode(DomainNode node) {
+            AtomicInteger onHost = runningPerHost.computeIfAbsent(node.getNodeHost(), host -> new AtomicInteger());
+            maxRunningPerHost.accumulateAndGet(onHost.incrementAndGet(), Math::max);
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+                onHost.decrementAndGet();
+            }
+
+            if (node.getName().equals("throwing")) {
+                throw new IllegalStateException("Unexpected failure");
+            }
+            if (node.getName().startsWith("failing")) {
+                return NodeReinstallResult.failed(node.getName(), "install-node-ssh exited with code 1");
+            }
+            return NodeReinstallResult.succeeded(node.getName());
+        }
+    };
+
+    @Test
+    public void testNodesAreReinstalledConcurrently() {
+        List<DomainNode> nodes = Arrays.asList(
+                node("node-1", "host-a"),
+                node("failing-2", "host-a"),
+                node("node-3", "host-b"),
+                node("throwing", "host-b"),
+                node("node-5", "host-c"),
+                node("failing-6", "host-d"));
+
+        List<String> failingNodes = command.reinstallSSHNodes(nodes);
+
+        assertEquals(Arrays.asList("failing-2", "throwing", "failing-6"), failingNodes);
+        assertTrue("Nodes on different hosts should be reinstalled at the same time", maxRunning.get() > 1);
+        assertEquals("Nodes on the same host should be reinstalled one at a time", 1, maxRunningPerHost.get());
+    }
+
+    private static DomainNode node(String name, String host) {
+        return new DomainNode(name, "SSH", host, null, "/opt/payara", "22", "payara", null, null, null, false);
+    }
+}
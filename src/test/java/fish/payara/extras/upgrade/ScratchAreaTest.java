@@ -0,0 +1,133 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScratchAreaTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ScratchAreaTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private TreeDeleter deleter;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        deleter = new TreeDeleter(directory.resolve(".upgrade-trash"), false, 2, LOGGER);
+    }
+
+    @Test
+    public void testScratchIsUnderInstallAndCleaned() throws IOException {
+        ScratchArea scratchArea = new ScratchArea(directory, null, deleter, 0, LOGGER);
+        Path extracted = scratchArea.createDirectory("payara-new");
+        Path archive = scratchArea.createFile("payara", ".zip");
+
+        Path scratch = directory.resolve(ScratchArea.DEFAULT_DIRECTORY_NAME);
+        assertTrue(extracted.startsWith(scratch));
+        assertTrue(archive.startsWith(scratch));
+        assertEquals(extracted.getParent(), archive.getParent());
+        assertEquals(Files.getFileStore(directory), Files.getFileStore(extracted));
+
+        scratchArea.clean();
+        assertFalse(Files.exists(extracted));
+        assertFalse(Files.exists(archive));
+        assertEquals(0, Files.list(scratch).count());
+    }
+
+    @Test
+    public void testConfiguredDirectoryOnSameStoreIsUsed() throws IOException {
+        Path configured = directory.resolve("configured-scratch");
+        ScratchArea scratchArea = new ScratchArea(directory, configured, deleter, 0, LOGGER);
+
+        assertTrue(scratchArea.createDirectory("payara-new").startsWith(configured));
+        scratchArea.clean();
+    }
+
+    @Test
+    public void testLeftoversAreDeletedUnlessInUse() throws IOException {
+        ScratchArea running = new ScratchArea(directory, null, deleter, 0, LOGGER);
+        Path inUse = running.createDirectory("payara-new");
+
+        // As left behind by a command which failed before cleaning up
+        Path scratch = directory.resolve(ScratchArea.DEFAULT_DIRECTORY_NAME);
+        Path leftover = Files.createDirectories(scratch.resolve("session-1/payara-new1"));
+        Files.write(leftover.resolve("payara.zip"), new byte[16]);
+
+        ScratchArea scratchArea = new ScratchArea(directory, null, deleter, 0, LOGGER);
+        scratchArea.createDirectory("payara-new");
+
+        assertFalse(Files.exists(leftover.getParent()));
+        assertTrue(Files.exists(inUse));
+        scratchArea.clean();
+        running.clean();
+    }
+
+    @Test
+    public void testNotEnoughFreeSpace() throws IOException {
+        ScratchArea scratchArea = new ScratchArea(directory, null, deleter, 0, LOGGER);
+        scratchArea.checkFreeSpace("nothing", 0);
+
+        try {
+            scratchArea.checkFreeSpace("everything", Long.MAX_VALUE / 2);
+            fail("Expected the free space check to fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("everything"));
+        } finally {
+            scratchArea.clean();
+        }
+    }
+}
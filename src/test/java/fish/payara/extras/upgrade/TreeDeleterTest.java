@@ -0,0 +1,150 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.logging.Logger;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TreeDeleterTest {
+
+    private static final Logger LOGGER = Logger.getLogger(TreeDeleterTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path trash;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        trash = directory.resolve(".upgrade-trash");
+    }
+
+    @Test
+    public void testTreeIsDeleted() throws IOException {
+        Path modules = createTree("modules.old");
+        Path osgiProperties = Files.write(directory.resolve("osgi.properties.old"), bytes("old"));
+
+        TreeDeleter deleter = new TreeDeleter(trash, false, 4, LOGGER);
+        deleter.delete(modules);
+        deleter.delete(osgiProperties);
+        deleter.delete(directory.resolve("missing.old"));
+
+        assertFalse(Files.exists(modules));
+        assertFalse(Files.exists(osgiProperties));
+        assertEquals(0, Files.list(trash).count());
+
+        deleter.finish();
+        assertFalse(Files.exists(trash));
+    }
+
+    @Test
+    public void testLeftoversAreDeletedOnFinish() throws IOException {
+        // As left behind by a background deletion which didn't complete
+        Files.createDirectories(trash);
+        createTree(".upgrade-trash/1-1-modules.old");
+        Path modules = createTree("modules.new");
+
+        TreeDeleter deleter = new TreeDeleter(trash, false, 2, LOGGER);
+        deleter.delete(modules);
+        assertTrue(Files.exists(trash.resolve("1-1-modules.old")));
+
+        deleter.finish();
+        assertFalse(Files.exists(trash));
+    }
+
+    @Test
+    public void testBackgroundTrashCanBeEmptiedNow() throws IOException {
+        Path modules = createTree("modules.old");
+
+        TreeDeleter deleter = new TreeDeleter(trash, true, 2, LOGGER);
+        deleter.delete(modules);
+        assertEquals(1, Files.list(trash).count());
+
+        // As done before the install is copied to the nodes
+        deleter.emptyNow();
+        assertFalse(Files.exists(trash));
+    }
+
+    @Test
+    public void testFailingInPlaceDeletionIsAnError() throws IOException {
+        // Permissions don't stop root from deleting anything
+        Assume.assumeFalse("root".equals(System.getProperty("user.name")));
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path modules = createTree("locked/modules.old");
+        Path locked = modules.getParent();
+        Files.setPosixFilePermissions(locked, PosixFilePermissions.fromString("r-xr-xr-x"));
+
+        try {
+            new TreeDeleter(trash, false, 2, LOGGER).delete(modules);
+            fail("A tree which could neither be moved to the trash nor deleted should be an error");
+        } catch (IOException expected) {
+            assertTrue(Files.exists(modules));
+        } finally {
+            Files.setPosixFilePermissions(locked, PosixFilePermissions.fromString("rwxr-xr-x"));
+        }
+    }
+
+    private Path createTree(String name) throws IOException {
+        Path tree = Files.createDirectories(directory.resolve(name));
+        for (int i = 0; i < 40; i++) {
+            Files.write(tree.resolve("module-" + i + ".jar"), bytes("module " + i));
+        }
+        Files.write(Files.createDirectories(tree.resolve("autostart/nested")).resolve("bundle.jar"), bytes("bundle"));
+        return tree;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UnchangedFileLinkerTest {
+
+    private static final Logger LOGGER = Logger.getLogger(UnchangedFileLinkerTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path archive;
+    private Path installed;
+
+    @Before
+    public void createInstall() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        archive = directory.resolve("payara-6.2.0.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/unchanged.jar"));
+            out.write(bytes("unchanged"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/changed.jar"));
+            out.write(bytes("changed in 6.2.0"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/added.jar"));
+            out.write(bytes("added"));
+        }
+
+        installed = Files.createDirectories(directory.resolve("glassfish/modules.old"));
+        Files.write(installed.resolve("unchanged.jar"), bytes("unchanged"));
+        Files.write(installed.resolve("changed.jar"), bytes("changed in 6.1.0"));
+        Files.write(installed.resolve("removed.jar"), bytes("removed"));
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreWritten() throws IOException {
+        String[] moveFolders = {"modules"};
+        MoveFolderLayout layout = new MoveFolderLayout(moveFolders);
+        Path target = Files.createDirectories(directory.resolve("glassfish/modules"));
+        UnchangedFileLinker linker = new UnchangedFileLinker(layout, folder -> installed, LOGGER);
+
+        new ZipExtractor(2, LOGGER).extract(archive, entryName -> {
+            MoveFolderLayout.Match match = layout.match(entryName);
+            return match == null ? null : ZipExtractor.resolve(target, match.getRelativePath());
+        }, linker);
+
+        assertEquals(1, linker.getLinkedCount());
+        assertEquals(2, linker.getWrittenCount());
+        assertTrue(Files.isSameFile(installed.resolve("unchanged.jar"), target.resolve("unchanged.jar")));
+        assertFalse(Files.isSameFile(installed.resolve("changed.jar"), target.resolve("changed.jar")));
+        assertEquals("changed in 6.2.0", new String(Files.readAllBytes(target.resolve("changed.jar")),
+                StandardCharsets.UTF_8));
+        assertEquals("added", new String(Files.readAllBytes(target.resolve("added.jar")), StandardCharsets.UTF_8));
+        assertEquals(Collections.singletonList(installed.resolve("removed.jar")), linker.findRemoved(moveFolders));
+    }
+
+    @Test
+    public void testManifestSparesReadingInstalledFiles() throws IOException {
+        String[] moveFolders = {"modules"};
+        MoveFolderLayout layout = new MoveFolderLayout(moveFolders);
+        Path target = Files.createDirectories(directory.resolve("glassfish/modules"));
+        // Records the CRC-32 of the new changed.jar for the installed one, as it has the same size
+        InstallManifest manifest = InstallManifest.scan(moveFolders, folder -> installed, "6.1.0", null,
+                InstallManifest.readArchive(archive, layout), LOGGER);
+        UnchangedFileLinker linker = new UnchangedFileLinker(layout, folder -> installed, manifest, LOGGER);
+
+        new ZipExtractor(2, LOGGER).extract(archive, entryName -> {
+            MoveFolderLayout.Match match = layout.match(entryName);
+            return match == null ? null : ZipExtractor.resolve(target, match.getRelativePath());
+        }, linker);
+
+        // Trusting the manifest, changed.jar is never read and so is linked
+        assertEquals(2, linker.getLinkedCount());
+        assertTrue(Files.isSameFile(installed.resolve("changed.jar"), target.resolve("changed.jar")));
+    }
+
+    @Test
+    public void testOnlyReadOnlyContentIsLinked() throws IOException {
+        Path libArchive = directory.resolve("payara-6.2.0-lib.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(libArchive))) {
+            out.putNextEntry(new ZipEntry("payara6/glassfish/lib/unchanged.jar"));
+            out.write(bytes("unchanged"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/lib/unchanged.properties"));
+            out.write(bytes("unchanged"));
+        }
+        Path installedLib = Files.createDirectories(directory.resolve("glassfish/lib.old"));
+        Files.write(installedLib.resolve("unchanged.jar"), bytes("unchanged"));
+        Files.write(installedLib.resolve("unchanged.properties"), bytes("unchanged"));
+
+        MoveFolderLayout layout = new MoveFolderLayout(new String[]{"lib"});
+        Path target = Files.createDirectories(directory.resolve("glassfish/lib"));
+        UnchangedFileLinker linker = new UnchangedFileLinker(layout, folder -> installedLib, LOGGER);
+        new ZipExtractor(2, LOGGER).extract(libArchive, entryName -> {
+            MoveFolderLayout.Match match = layout.match(entryName);
+            return match == null ? null : ZipExtractor.resolve(target, match.getRelativePath());
+        }, linker);
+
+        // Editing the extracted properties file mustn't change the copy kept for rollback
+        assertEquals(1, linker.getLinkedCount());
+        assertTrue(Files.isSameFile(installedLib.resolve("unchanged.jar"), target.resolve("unchanged.jar")));
+        assertFalse(Files.isSameFile(installedLib.resolve("unchanged.properties"),
+                target.resolve("unchanged.properties")));
+    }
+
+    @Test
+    public void testDeltaExtractionCanBeUndone() throws IOException {
+        String[] moveFolders = {"modules"};
+        MoveFolderLayout layout = new MoveFolderLayout(moveFolders);
+        Path target = Files.createDirectories(directory.resolve("glassfish/modules"));
+        UnchangedFileLinker linker = new UnchangedFileLinker(layout, folder -> installed, LOGGER);
+        new ZipExtractor(2, LOGGER).extract(archive, entryName -> {
+            MoveFolderLayout.Match match = layout.match(entryName);
+            return match == null ? null : ZipExtractor.resolve(target, match.getRelativePath());
+        }, linker);
+
+        // As done by undoMoveFiles when the upgrade fails after extraction, with unchanged.jar linked on both sides
+        BaseUpgradeCommand command = new BaseUpgradeCommand() {
+            @Override
+            protected int executeCommand() {
+                return SUCCESS;
+            }
+        };
+        command.glassfishDir = directory.resolve("glassfish").toString();
+        command.mergeTree(installed, target);
+
+        assertFalse(Files.exists(installed));
+        assertEquals("unchanged", new String(Files.readAllBytes(target.resolve("unchanged.jar")),
+                StandardCharsets.UTF_8));
+        assertEquals("changed in 6.1.0", new String(Files.readAllBytes(target.resolve("changed.jar")),
+                StandardCharsets.UTF_8));
+        assertEquals("removed", new String(Files.readAllBytes(target.resolve("removed.jar")), StandardCharsets.UTF_8));
+    }
+}
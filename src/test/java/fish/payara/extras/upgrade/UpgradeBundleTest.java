@@ -0,0 +1,185 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static fish.payara.extras.upgrade.TestFiles.bytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UpgradeBundleTest {
+
+    private static final Logger LOGGER = Logger.getLogger(UpgradeBundleTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path installed;
+    private byte[] oldJar;
+    private byte[] newJar;
+
+    @Before
+    public void createDistributions() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+
+        oldJar = new byte[200_000];
+        new Random(42).nextBytes(oldJar);
+        // A few bytes changed and a few inserted, as with a class which changed in a jar
+        newJar = new byte[oldJar.length + 100];
+        System.arraycopy(oldJar, 0, newJar, 0, 50_000);
+        Arrays.fill(newJar, 50_000, 50_100, (byte) 7);
+        System.arraycopy(oldJar, 50_000, newJar, 50_100, oldJar.length - 50_000);
+        newJar[150_000] ^= 1;
+
+        writeDistribution(directory.resolve("payara-6.1.0.zip"), oldJar, "6.1.0");
+        writeDistribution(directory.resolve("payara-6.2.0.zip"), newJar, "6.2.0");
+
+        installed = Files.createDirectories(directory.resolve("glassfish/modules"));
+        Files.write(installed.resolve("unchanged.jar"), bytes("unchanged"));
+        Files.write(installed.resolve("changed.jar"), oldJar);
+    }
+
+    @Test
+    public void testBinaryDeltaRoundTrip() throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        BinaryDelta.diff(oldJar, newJar, patch);
+
+        assertTrue("Patch should be much smaller than the file, was " + patch.size(), patch.size() < 1_000);
+        assertArrayEquals(newJar, BinaryDelta.apply(oldJar, new ByteArrayInputStream(patch.toByteArray())));
+    }
+
+    @Test
+    public void testRebuildFromBundle() throws IOException {
+        Path bundle = directory.resolve("bundle.zip");
+        Path rebuilt = directory.resolve("rebuilt.zip");
+        UpgradeBundle upgradeBundle = new UpgradeBundle(LOGGER);
+        upgradeBundle.create(directory.resolve("payara-6.1.0.zip"), directory.resolve("payara-6.2.0.zip"), bundle);
+
+        assertTrue(Files.size(bundle) < newJar.length / 10);
+
+        upgradeBundle.rebuild(bundle, this::getInstalled, rebuilt);
+
+        try (ZipFile zipFile = new ZipFile(rebuilt.toFile())) {
+            assertArrayEquals(bytes("unchanged"), read(zipFile, "payara6/glassfish/modules/unchanged.jar"));
+            assertArrayEquals(newJar, read(zipFile, "payara6/glassfish/modules/changed.jar"));
+            assertArrayEquals(bytes("added"), read(zipFile, "payara6/glassfish/modules/added.jar"));
+            assertArrayEquals(bytes("6.2.0"), read(zipFile, "payara6/glassfish/config/branding/version"));
+            // Not part of the install, so not needed by the upgrade
+            assertNull(zipFile.getEntry("payara6/glassfish/domains/domain1/config/domain.xml"));
+        }
+    }
+
+    @Test
+    public void testModifiedInstallIsRejected() throws IOException {
+        Path bundle = directory.resolve("bundle.zip");
+        UpgradeBundle upgradeBundle = new UpgradeBundle(LOGGER);
+        upgradeBundle.create(directory.resolve("payara-6.1.0.zip"), directory.resolve("payara-6.2.0.zip"), bundle);
+        Files.write(installed.resolve("unchanged.jar"), bytes("modified"));
+
+        try {
+            upgradeBundle.rebuild(bundle, this::getInstalled, directory.resolve("rebuilt.zip"));
+            fail("Bundle should not apply to a modified install");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("unchanged.jar"));
+        }
+    }
+
+    private Path getInstalled(String entryName) {
+        String modules = "payara6/glassfish/modules/";
+        if (!entryName.startsWith(modules) || entryName.length() == modules.length()) {
+            return null;
+        }
+        return installed.resolve(entryName.substring(modules.length()));
+    }
+
+    private static void writeDistribution(Path archive, byte[] jar, String version) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("payara6/"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/unchanged.jar"));
+            out.write(bytes("unchanged"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/modules/changed.jar"));
+            out.write(jar);
+            if (version.equals("6.2.0")) {
+                out.putNextEntry(new ZipEntry("payara6/glassfish/modules/added.jar"));
+                out.write(bytes("added"));
+            }
+            out.putNextEntry(new ZipEntry("payara6/glassfish/config/branding/version"));
+            out.write(bytes(version));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/domains/domain1/config/domain.xml"));
+            out.write(bytes("<domain/>"));
+        }
+    }
+
+    private static byte[] read(ZipFile zipFile, String name) throws IOException {
+        ZipEntry entry = zipFile.getEntry(name);
+        assertNotNull(name, entry);
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                content.write(buffer, 0, length);
+            }
+            return content.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2026 Payara Foundation and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://github.com/payara/Payara/blob/master/LICENSE.txt
+ * See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at glassfish/legal/LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * The Payara Foundation designates this particular file as subject to the "Classpath"
+ * exception as provided by the Payara Foundation in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package fish.payara.extras.upgrade;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.function.ToIntFunction;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipExtractorTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ZipExtractorTest.class.getName());
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Path directory;
+    private Path archive;
+
+    @Before
+    public void createArchive() throws IOException {
+        directory = temporaryFolder.getRoot().toPath();
+        archive = directory.resolve("payara-6.1.0.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+            out.putNextEntry(new ZipEntry("payara6/"));
+            out.putNextEntry(new ZipEntry("payara6/glassfish/bin/asadmin"));
+            out.write("#!/bin/sh".getBytes(StandardCharsets.UTF_8));
+            // Entries of a directory without an entry of its own
+            for (int i = 0; i < 50; i++) {
+                out.putNextEntry(new ZipEntry("payara6/glassfish/modules/module-" + i + ".jar"));
+                out.write(content(i));
+            }
+            out.putNextEntry(new ZipEntry("payara6/glassfish/domains/domain1/logs/"));
+        }
+    }
+
+    @Test
+    public void testParallelExtraction() throws IOException {
+        Path target = Files.createDirectory(directory.resolve("parallel"));
+
+        new ZipExtractor(4, LOGGER).extract(archive, target);
+
+        assertExtracted(target);
+    }
+
+    @Test
+    public void testStreamingExtraction() throws IOException {
+        Path target = Files.createDirectory(directory.resolve("streamed"));
+
+        try (InputStream in = Files.newInputStream(archive)) {
+            new ZipExtractor(LOGGER).extract(in, target);
+        }
+
+        assertExtracted(target);
+    }
+
+    @Test
+    public void testEntryOutsideTargetIsRejected() throws IOException {
+        Path malicious = directory.resolve("malicious.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(malicious))) {
+            out.putNextEntry(new ZipEntry("payara6/../../escaped"));
+            out.write(1);
+        }
+        Path target = Files.createDirectory(directory.resolve("target"));
+
+        try {
+            new ZipExtractor(2, LOGGER).extract(malicious, target);
+            fail("Entry outside of the target directory should have been rejected");
+        } catch (IOException expected) {
+            assertFalse(Files.exists(directory.resolve("escaped")));
+        }
+    }
+
+    @Test
+    public void testUnixModesAreApplied() throws IOException {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        setUnixModes(archive, name -> name.contains("/bin/") ? 0100755 : 0100640);
+        Path target = Files.createDirectory(directory.resolve("modes"));
+
+        assertTrue(new ZipExtractor(4, LOGGER).extract(archive, target));
+
+        assertExtracted(target);
+        assertEquals(PosixFilePermissions.fromString("rwxr-xr-x"),
+                Files.getPosixFilePermissions(target.resolve("payara6/glassfish/bin/asadmin")));
+        assertEquals(PosixFilePermissions.fromString("rw-r-----"),
+                Files.getPosixFilePermissions(target.resolve("payara6/glassfish/modules/module-7.jar")));
+    }
+
+    @Test
+    public void testArchiveWithoutUnixModes() throws IOException {
+        Path target = Files.createDirectory(directory.resolve("default"));
+
+        assertFalse(new ZipExtractor(2, LOGGER).extract(archive, target));
+        assertTrue(ZipUnixModes.read(archive).isEmpty());
+    }
+
+    /**
+     * Marks every entry of the archive as created on Unix with the given mode, as ZipOutputStream has no way to.
+     */
+    private static void setUnixModes(Path archive, ToIntFunction<String> modes) throws IOException {
+        ByteBuffer zip = ByteBuffer.wrap(Files.readAllBytes(archive)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int position = 0; position < zip.limit() - 46; position++) {
+            if (zip.getInt(position) == 0x02014b50) {
+                byte[] name = new byte[zip.getShort(position + 28)];
+                for (int i = 0; i < name.length; i++) {
+                    name[i] = zip.get(position + 46 + i);
+                }
+                zip.putShort(position + 4, (short) (3 << 8 | 20));
+                zip.putInt(position + 38, modes.applyAsInt(new String(name, StandardCharsets.UTF_8)) << 16);
+            }
+        }
+        Files.write(archive, zip.array());
+    }
+
+    private void assertExtracted(Path target) throws IOException {
+        assertEquals("#!/bin/sh", new String(Files.readAllBytes(
+                target.resolve("payara6/glassfish/bin/asadmin")), StandardCharsets.UTF_8));
+        for (int i = 0; i < 50; i++) {
+            assertArrayEquals(content(i), Files.readAllBytes(
+                    target.resolve("payara6/glassfish/modules/module-" + i + ".jar")));
+        }
+        assertTrue(Files.isDirectory(target.resolve("payara6/glassfish/domains/domain1/logs")));
+    }
+
+    private static byte[] content(int seed) {
+        byte[] content = new byte[1000 * (seed + 1)];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * seed);
+        }
+        return content;
+    }
+}